@@ -39,6 +39,19 @@ package projects.sanders;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
+import projects.sanders.checkpoint.Checkpoint;
+import projects.sanders.faults.FaultInjector;
+import projects.sanders.logging.ProtocolLog;
+import projects.sanders.logging.ProtocolLog.Category;
+import projects.sanders.logging.ProtocolLog.Level;
+import projects.sanders.metrics.ConfidenceTermination;
+import projects.sanders.metrics.ProtocolStatistics;
+import projects.sanders.metrics.TimeSeriesExporter;
+import projects.sanders.models.connectivityModels.CoterieLayout;
+import projects.sanders.models.connectivityModels.TopologyCache;
+import projects.sanders.monitor.ProtocolMonitor;
+import projects.sanders.priority.PriorityClasses;
+import projects.sanders.replay.ExecutionLog;
 import sinalgo.configuration.Configuration;
 import sinalgo.exception.CorruptConfigurationEntryException;
 import sinalgo.exception.SinalgoFatalException;
@@ -101,6 +114,11 @@ public class CustomGlobal extends AbstractCustomGlobal {
 
     @Override
     public boolean hasTerminated() {
+        // latency and throughput are known precisely enough
+        if (ConfidenceTermination.hasConverged()) {
+            return true;
+        }
+
         if (this.isExitAfterFixedRounds()) {
             return this.getExitAfterNumRounds() <= Global.getCurrentTime();
         }
@@ -126,15 +144,46 @@ public class CustomGlobal extends AbstractCustomGlobal {
 
     @Override
     public void preRun() {
+        SimulationRandom.reset();
+        ProtocolLog.reset();
+        PriorityClasses.reset();
+        ProtocolStatistics.reset();
+        ConfidenceTermination.reset();
+        TimeSeriesExporter.reset();
+        ProtocolMonitor.reset();
+        FaultInjector.reset();
+        CoterieLayout.reset();
+        TopologyCache.reset();
+        Checkpoint.reset();
+        ExecutionLog.reset();
+    }
+
+    @Override
+    public void preRound() {
+        Checkpoint.preRound();
+        // drop the nodes removed since last round from the coterie matrix
+        CoterieLayout.get().sync();
+        FaultInjector.preRound();
     }
 
     @Override
     public void postRound() {
-        logger.logln(LogL.debugLog, "------------ round finished -------------");
+        FaultInjector.postRound();
+        Checkpoint.postRound();
+        ExecutionLog.postRound();
+        ProtocolMonitor.postRound();
+        ConfidenceTermination.postRound();
+        TimeSeriesExporter.postRound();
+        ProtocolLog.log(Category.ROUND, Level.INFO, "------------ round finished -------------");
     }
 
     @Override
     public void onExit() {
-        // perform some cleanup operations here
+        ExecutionLog.close();
+        TimeSeriesExporter.close();
+        ProtocolLog.close();
+        ProtocolStatistics.report(logger);
+        ConfidenceTermination.report(logger);
+        ProtocolMonitor.report(logger);
     }
 }
@@ -0,0 +1,49 @@
+package projects.sanders;
+
+import sinalgo.configuration.Configuration;
+
+/**
+ * The random source of the project. Its whole state is a single long, so it
+ * can be saved in a checkpoint and restored exactly (SplitMix64 generator).
+ * <p>
+ * Seeded with <code>fixedSeed</code> when <code>useFixedSeed</code> is set in
+ * Config.xml, so runs can be repeated.
+ */
+public class SimulationRandom {
+    private static long state;
+    private static boolean seeded;
+
+    public static void reset() {
+        seeded = false;
+    }
+
+    public static double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    public static long nextLong() {
+        ensureSeeded();
+
+        long z = (state += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static void ensureSeeded() {
+        if (!seeded) {
+            seeded = true;
+            state = Configuration.isUseFixedSeed() ? Configuration.getFixedSeed() : System.nanoTime();
+        }
+    }
+
+    public static long getState() {
+        ensureSeeded();
+        return state;
+    }
+
+    public static void setState(long s) {
+        state = s;
+        seeded = true;
+    }
+}
@@ -0,0 +1,228 @@
+package projects.sanders.checkpoint;
+
+import projects.sanders.SimulationRandom;
+import projects.sanders.faults.FaultInjector;
+import projects.sanders.metrics.ProtocolStatistics;
+import projects.sanders.models.connectivityModels.CoterieLayout;
+import projects.sanders.monitor.ProtocolMonitor;
+import projects.sanders.nodes.messages.MessageTypes;
+import projects.sanders.nodes.nodeImplementations.SandersNode;
+import sinalgo.configuration.Configuration;
+import sinalgo.exception.CorruptConfigurationEntryException;
+import sinalgo.exception.SinalgoFatalException;
+import sinalgo.nodes.Node;
+import sinalgo.nodes.messages.Message;
+import sinalgo.runtime.Global;
+import sinalgo.runtime.SinalgoRuntime;
+import sinalgo.tools.logging.Logging;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Saves the whole simulation every <code>Checkpoint/Interval</code> rounds and
+ * resumes from the file given in <code>Checkpoint/RestoreFrom</code>.
+ * <p>
+ * A checkpoint holds, in this order: header (magic, version, round), random
+ * state, coterie layout, fault injection state, statistics, the state of every
+ * node (by ID) and the messages still in flight with their delivery time.
+ * Restoring reads the file once and touches every node once, so its cost is
+ * proportional to the size of the checkpoint.
+ * <p>
+ * The node IDs of the resumed run must match the saved one, so it has to be
+ * started with the same number of nodes.
+ */
+public class Checkpoint {
+    private static final int MAGIC = 0x534e4443; // "SNDC"
+    private static final int VERSION = 2;
+
+    private static boolean loaded;
+    private static int interval;
+    private static String directory = "checkpoints";
+    private static String restoreFrom = "";
+    private static boolean restored;
+
+    private static Logging logger = Logging.getLogger("logfile.txt");
+
+    public static void reset() {
+        loaded = false;
+        restored = false;
+        load();
+        InFlightMessages.reset(interval > 0);
+    }
+
+    private static void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        try {
+            if (Configuration.hasParameter("Checkpoint/Interval")) {
+                interval = Configuration.getIntegerParameter("Checkpoint/Interval");
+            }
+            if (Configuration.hasParameter("Checkpoint/Directory")) {
+                directory = Configuration.getStringParameter("Checkpoint/Directory");
+            }
+            if (Configuration.hasParameter("Checkpoint/RestoreFrom")) {
+                restoreFrom = Configuration.getStringParameter("Checkpoint/RestoreFrom");
+            }
+        } catch (CorruptConfigurationEntryException e) {
+            throw new SinalgoFatalException("Invalid Checkpoint entry in Config.xml: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Restores the configured checkpoint. Done at the first round, when all
+     * nodes of the simulation exist.
+     */
+    public static void preRound() {
+        if (restored || restoreFrom == null || restoreFrom.trim().isEmpty()) {
+            return;
+        }
+        restored = true;
+
+        try {
+            restore(new File(restoreFrom.trim()));
+        } catch (IOException e) {
+            throw new SinalgoFatalException("Could not restore checkpoint " + restoreFrom + ": " + e.getMessage());
+        }
+    }
+
+    public static void postRound() {
+        long round = (long) Global.getCurrentTime();
+
+        if (interval <= 0 || round % interval != 0) {
+            return;
+        }
+
+        File file = new File(directory, "checkpoint-" + round + ".bin");
+        try {
+            save(file);
+        } catch (IOException e) {
+            logger.logln("Could not write checkpoint " + file + ": " + e.getMessage());
+        }
+    }
+
+    public static void save(File file) throws IOException {
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+
+        double now = Global.getCurrentTime();
+        List<SandersNode> nodes = sandersNodes();
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong((long) now);
+            out.writeLong(SimulationRandom.getState());
+
+            CoterieLayout.writeState(out);
+            FaultInjector.writeState(out);
+            ProtocolStatistics.writeState(out);
+
+            out.writeInt(nodes.size());
+            for (SandersNode n : nodes) {
+                out.writeLong(n.getID());
+                n.writeState(out);
+            }
+
+            List<InFlightMessages.Entry> inFlight = InFlightMessages.pendingAfter(now);
+            out.writeInt(inFlight.size());
+            for (InFlightMessages.Entry e : inFlight) {
+                out.writeLong(e.origin.getID());
+                out.writeLong(e.destination.getID());
+                out.writeDouble(e.arrivingTime - now);
+                writeMessage(out, e.msg);
+            }
+        }
+
+        logger.logln("Checkpoint written to " + file);
+    }
+
+    public static void restore(File file) throws IOException {
+        HashMap<Long, Node> byId = new HashMap<>();
+        for (Node n : SinalgoRuntime.getNodes()) {
+            byId.put(n.getID(), n);
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a checkpoint of this version");
+            }
+
+            // the next round of the resumed run is the one after the checkpoint
+            long round = in.readLong();
+            Global.setCurrentTime(round + 1);
+            double now = Global.getCurrentTime();
+            SimulationRandom.setState(in.readLong());
+
+            CoterieLayout.readState(in, byId);
+            FaultInjector.readState(in);
+            ProtocolStatistics.readState(in);
+
+            List<SandersNode> restoredNodes = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                Node n = byId.get(in.readLong());
+                if (!(n instanceof SandersNode)) {
+                    throw new IOException("checkpoint holds a node that does not exist in this run");
+                }
+                ((SandersNode) n).readState(in, byId);
+                ProtocolMonitor.restored((SandersNode) n);
+                restoredNodes.add((SandersNode) n);
+            }
+
+            // delays were saved relative to the checkpoint round
+            for (int i = in.readInt(); i > 0; i--) {
+                Node origin = byId.get(in.readLong());
+                Node destination = byId.get(in.readLong());
+                double remaining = in.readDouble() - 1;
+                Message msg = readMessage(in);
+
+                if (!(origin instanceof SandersNode)) {
+                    throw new IOException("checkpoint holds a message from a node that does not exist in this run");
+                }
+                InFlightMessages.setForcedDelay(Math.max(0, remaining));
+                ((SandersNode) origin).resend(msg, destination);
+            }
+            InFlightMessages.setForcedDelay(-1);
+
+            for (SandersNode n : restoredNodes) {
+                n.restartTimers(now);
+            }
+
+            logger.logln("Checkpoint " + file + " restored at round " + round);
+        }
+    }
+
+    private static List<SandersNode> sandersNodes() {
+        List<SandersNode> nodes = new ArrayList<>();
+        for (Node n : SinalgoRuntime.getNodes()) {
+            if (n instanceof SandersNode) {
+                nodes.add((SandersNode) n);
+            }
+        }
+        return nodes;
+    }
+
+    private static void writeMessage(DataOutputStream out, Message msg) throws IOException {
+        out.writeByte(MessageTypes.typeOf(msg));
+        out.writeInt(MessageTypes.timestampOf(msg));
+        out.writeInt(MessageTypes.grantOf(msg));
+    }
+
+    private static Message readMessage(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        int ts = in.readInt();
+        int grant = in.readInt();
+
+        try {
+            return MessageTypes.create(type, ts, grant);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+}
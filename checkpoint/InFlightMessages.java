@@ -0,0 +1,87 @@
+package projects.sanders.checkpoint;
+
+import sinalgo.nodes.Node;
+import sinalgo.nodes.messages.Message;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Keeps track of the messages that were sent but not delivered yet, so they
+ * can be saved in a checkpoint. Sinalgo keeps its packets private, so the
+ * transmission model registers every message when it computes its delivery
+ * time and the node removes it when it is handled.
+ * <p>
+ * Lost messages are never handled; they are dropped from the ledger once
+ * their delivery time has passed.
+ */
+public class InFlightMessages {
+    private static boolean tracking;
+    private static final IdentityHashMap<Message, Entry> pending = new IdentityHashMap<>();
+    private static long sent;
+
+    // delivery delay imposed on the next sent message, negative when unset
+    private static double forcedDelay = -1;
+
+    public static class Entry {
+        public Node origin;
+        public Node destination;
+        public Message msg;
+        public double arrivingTime;
+        // messages arriving in the same round are received in the order they were sent
+        long seq;
+    }
+
+    public static void reset(boolean enabled) {
+        tracking = enabled;
+        pending.clear();
+        sent = 0;
+        forcedDelay = -1;
+    }
+
+    public static boolean isTracking() {
+        return tracking;
+    }
+
+    public static void sent(Node origin, Node destination, Message msg, double arrivingTime) {
+        if (!tracking) {
+            return;
+        }
+
+        Entry entry = new Entry();
+        entry.origin = origin;
+        entry.destination = destination;
+        entry.msg = msg;
+        entry.arrivingTime = arrivingTime;
+        entry.seq = sent++;
+        pending.put(msg, entry);
+    }
+
+    public static void received(Message msg) {
+        if (tracking) {
+            pending.remove(msg);
+        }
+    }
+
+    /**
+     * Messages that will still arrive after <code>now</code>, in the order
+     * they were sent.
+     */
+    public static List<Entry> pendingAfter(double now) {
+        pending.values().removeIf(e -> e.arrivingTime <= now);
+        List<Entry> entries = new ArrayList<>(pending.values());
+        entries.sort(Comparator.comparingLong(e -> e.seq));
+        return entries;
+    }
+
+    public static double getForcedDelay() {
+        return forcedDelay;
+    }
+
+    // used when restoring, so re-sent messages keep their original delivery time
+    public static void setForcedDelay(double delay) {
+        forcedDelay = delay;
+    }
+}
@@ -0,0 +1,308 @@
+package projects.sanders.compact;
+
+import projects.sanders.nodes.messages.MessageTypes;
+import projects.sanders.nodes.nodeImplementations.SandersNode;
+import projects.sanders.protocol.GridQuorum;
+import projects.sanders.protocol.SandersStateMachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The simulation of {@link SandersNode} for very large grids, without the
+ * framework: the same synchronous rounds, request probability, fixed delay
+ * transmission model and critical session time, and the same
+ * {@link SandersStateMachine} handling the messages.
+ * <p>
+ * Only nodes that are asking, inside the critical session, or arbiters with a
+ * vote out or a request queued have a state machine; an idle node is dropped
+ * and only its grant sequence is kept, in a primitive array, so memory
+ * follows the number of concurrent requests and their quorums, not the number
+ * of nodes. The clock (<code>currTs</code>) is the round number, the same for
+ * every node in the simulation, so it is kept once.
+ * <p>
+ * Nodes are numbered from 1 as in {@link GridQuorum}, whose quorums are
+ * computed for each request, never stored.
+ * <p>
+ * Usage: <code>CompactSimulation [nodes] [rounds] [request probability]
+ * [delay probability] [delay] [seed]</code>.
+ */
+public class CompactSimulation {
+    private static final int CRITICAL_SESSION_TIME = (int) SandersNode.CRITICAL_SESSION_TIME;
+    private static final int LATENCY_BUCKETS = 1 << 16;
+
+    private final int size;
+    private final int width;
+    private final double requestProbability;
+    private final double delayProbability;
+    private final int delay;
+    private final SplittableRandom random;
+    private final GridQuorum layout;
+
+    // per node, by ID
+    private final Participant[] active;
+    private final int[] grantSeq;
+    private int activeCount;
+    private int activePeak;
+
+    private final MessageCalendar inFlight;
+    private final int[][] exits;
+    private final int[] exitCount;
+
+    private int round;
+    private int holders;
+
+    // statistics
+    private long entries;
+    private long requests;
+    private long relinquishes;
+    private final long[] messages = new long[MessageTypes.RELEASE + 1];
+    private final long[] latencyHistogram = new long[LATENCY_BUCKETS];
+    private long latencySum;
+    private long elapsedNanos;
+
+    private class Participant implements SandersStateMachine.Host<Integer> {
+        final int id;
+        final SandersStateMachine<Integer> machine = new SandersStateMachine<>(this);
+
+        Participant(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public long idOf(Integer participant) {
+            return participant;
+        }
+
+        @Override
+        public void send(Integer to, byte type, int timestamp, int value) {
+            if (type == MessageTypes.RELINQUISH) {
+                relinquishes++;
+            }
+            CompactSimulation.this.send(type, id, to, timestamp, value);
+        }
+
+        @Override
+        public void entered() {
+            CompactSimulation.this.entered(this);
+        }
+
+        @Override
+        public int nextGrant(int last) {
+            return ++grantSeq[id];
+        }
+    }
+
+    public CompactSimulation(int size, double requestProbability, double delayProbability, int delay, long seed) {
+        this.size = size;
+        this.width = Math.max(1, (int) Math.sqrt(size));
+        this.requestProbability = requestProbability;
+        this.delayProbability = delayProbability;
+        this.delay = Math.max(1, delay);
+        this.random = new SplittableRandom(seed);
+        this.layout = new GridQuorum(size);
+
+        active = new Participant[size + 1];
+        grantSeq = new int[size + 1];
+
+        inFlight = new MessageCalendar(this.delay);
+        exits = new int[CRITICAL_SESSION_TIME + 1][16];
+        exitCount = new int[CRITICAL_SESSION_TIME + 1];
+    }
+
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        double probability = args.length > 2 ? Double.parseDouble(args[2]) : 0.00001;
+        double delayProbability = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        int delay = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 1;
+
+        CompactSimulation simulation = new CompactSimulation(nodes, probability, delayProbability, delay, seed);
+        simulation.run(rounds);
+        simulation.report();
+    }
+
+    public void run(int rounds) {
+        long start = System.nanoTime();
+
+        for (int r = 0; r < rounds; r++) {
+            round++;
+            exitDue();
+            deliverDue();
+            issueRequests();
+        }
+
+        elapsedNanos += System.nanoTime() - start;
+    }
+
+    public void report() {
+        Runtime runtime = Runtime.getRuntime();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+
+        System.out.println("Nodes: " + size + " (" + width + " x " + (size + width - 1) / width + "), rounds: " + round
+                + String.format(", %.1f rounds/s", getRoundsPerSecond()));
+        System.out.println("Requests: " + requests + ", entries: " + entries + ", relinquishes: " + relinquishes);
+        System.out.println(String.format("Messages: %d (%.1f per entry), latency mean %.2f p99 %d rounds",
+                getMessages(), getMessagesPerEntry(), entries == 0 ? 0.0 : (double) latencySum / entries,
+                getLatencyPercentile(0.99)));
+        System.out.println(String.format("State machines: %d now, %d at most (%.4f per node), heap in use %.1f bytes/node",
+                activeCount, activePeak, (double) activePeak / size, (double) heap / size));
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getRound() {
+        return round;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    public long getMessages() {
+        long total = 0;
+        for (long m : messages) {
+            total += m;
+        }
+        return total;
+    }
+
+    public long getMessages(byte type) {
+        return messages[type];
+    }
+
+    public double getMessagesPerEntry() {
+        return entries == 0 ? 0 : (double) getMessages() / entries;
+    }
+
+    public double getRoundsPerSecond() {
+        return elapsedNanos == 0 ? 0 : round / (elapsedNanos / 1e9);
+    }
+
+    public long getLatencyPercentile(double p) {
+        long target = (long) Math.ceil(p * entries);
+        long seen = 0;
+        for (int latency = 0; latency < LATENCY_BUCKETS; latency++) {
+            seen += latencyHistogram[latency];
+            if (seen >= target && seen > 0) {
+                return latency;
+            }
+        }
+        return LATENCY_BUCKETS - 1;
+    }
+
+    /**
+     * Highest number of nodes that had a state machine at the same time.
+     */
+    public int getActivePeak() {
+        return activePeak;
+    }
+
+    private void exitDue() {
+        int bucket = round % exits.length;
+        for (int i = 0; i < exitCount[bucket]; i++) {
+            int n = exits[bucket][i];
+            holders--;
+            active[n].machine.release();
+            dropIfIdle(n);
+        }
+        exitCount[bucket] = 0;
+    }
+
+    private void deliverDue() {
+        MessageCalendar.Bucket due = inFlight.due(round);
+        for (int i = 0; i < due.size; i++) {
+            int to = due.to[i];
+            participant(to).machine.handle(due.from[i], due.type[i], due.timestamp[i], due.grant[i]);
+            dropIfIdle(to);
+        }
+        due.size = 0;
+    }
+
+    // each idle node asks with the request probability; the next asking node
+    // is drawn directly (geometric gap) instead of drawing for every node
+    private void issueRequests() {
+        if (requestProbability <= 0) {
+            return;
+        }
+
+        double logMiss = Math.log1p(-Math.min(requestProbability, 1 - 1e-12));
+        for (long n = 1 + gap(logMiss); n <= size; n += 1 + gap(logMiss)) {
+            Participant p = active[(int) n];
+            if (p == null || (!p.machine.isWaitingCS() && !p.machine.isInCs())) {
+                requests++;
+                participant((int) n).machine.request(round, 0, quorum((int) n));
+                dropIfIdle((int) n);
+            }
+        }
+    }
+
+    private long gap(double logMiss) {
+        if (requestProbability >= 1) {
+            return 0;
+        }
+        return (long) (Math.log(1 - random.nextDouble()) / logMiss);
+    }
+
+    private List<Integer> quorum(int n) {
+        int[] members = layout.quorum(n);
+        List<Integer> quorum = new ArrayList<>(members.length);
+        for (int member : members) {
+            quorum.add(member);
+        }
+        return quorum;
+    }
+
+    private Participant participant(int n) {
+        Participant p = active[n];
+        if (p == null) {
+            p = new Participant(n);
+            active[n] = p;
+            activePeak = Math.max(activePeak, ++activeCount);
+        }
+        return p;
+    }
+
+    private void dropIfIdle(int n) {
+        Participant p = active[n];
+        if (p != null && p.machine.isIdle()) {
+            active[n] = null;
+            activeCount--;
+        }
+    }
+
+    // the node with the vote enters, and leaves after the critical session time
+    private void entered(Participant p) {
+        entries++;
+        if (++holders > 1) {
+            throw new IllegalStateException("Mutual exclusion violated at round " + round + " by node " + p.id);
+        }
+
+        int latency = Math.min(round - p.machine.getMyTs(), LATENCY_BUCKETS - 1);
+        latencyHistogram[latency]++;
+        latencySum += latency;
+
+        int bucket = (round + CRITICAL_SESSION_TIME) % exits.length;
+        if (exitCount[bucket] == exits[bucket].length) {
+            exits[bucket] = Arrays.copyOf(exits[bucket], exitCount[bucket] * 2);
+        }
+        exits[bucket][exitCount[bucket]++] = p.id;
+    }
+
+    // messages to itself are handled right away, as in the simulation
+    private void send(byte type, int from, int to, int timestamp, int value) {
+        if (from == to) {
+            active[from].machine.handle(from, type, timestamp, value);
+            return;
+        }
+
+        messages[type]++;
+        int time = delayProbability > 0 && random.nextDouble() <= delayProbability ? delay : 1;
+        inFlight.schedule(round + time, type, from, to, timestamp, value);
+    }
+}
@@ -0,0 +1,55 @@
+package projects.sanders.compact;
+
+import java.util.Arrays;
+
+/**
+ * Messages in flight, bucketed by delivery round in a ring of
+ * <code>maxDelay + 1</code> buckets. A bucket stores its messages in parallel
+ * primitive arrays, which are cleared (not freed) once delivered, so a
+ * steady-state run allocates nothing.
+ */
+class MessageCalendar {
+    private final Bucket[] ring;
+
+    static class Bucket {
+        int size;
+        byte[] type = new byte[64];
+        int[] from = new int[64];
+        int[] to = new int[64];
+        int[] timestamp = new int[64];
+        int[] grant = new int[64];
+
+        void add(byte t, int f, int d, int ts, int g) {
+            if (size == type.length) {
+                int capacity = size * 2;
+                type = Arrays.copyOf(type, capacity);
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                timestamp = Arrays.copyOf(timestamp, capacity);
+                grant = Arrays.copyOf(grant, capacity);
+            }
+
+            type[size] = t;
+            from[size] = f;
+            to[size] = d;
+            timestamp[size] = ts;
+            grant[size] = g;
+            size++;
+        }
+    }
+
+    MessageCalendar(int maxDelay) {
+        ring = new Bucket[maxDelay + 1];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Bucket();
+        }
+    }
+
+    void schedule(long round, byte type, int from, int to, int timestamp, int grant) {
+        ring[(int) (round % ring.length)].add(type, from, to, timestamp, grant);
+    }
+
+    Bucket due(long round) {
+        return ring[(int) (round % ring.length)];
+    }
+}
@@ -0,0 +1,255 @@
+package projects.sanders.faults;
+
+import projects.sanders.SimulationRandom;
+import projects.sanders.metrics.ProtocolStatistics;
+import projects.sanders.nodes.nodeImplementations.SandersNode;
+import projects.sanders.replay.ExecutionLog;
+import sinalgo.configuration.Configuration;
+import sinalgo.exception.CorruptConfigurationEntryException;
+import sinalgo.exception.SinalgoFatalException;
+import sinalgo.nodes.Node;
+import sinalgo.nodes.messages.Message;
+import sinalgo.runtime.Global;
+import sinalgo.tools.Tools;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Crashes and recovers nodes according to the <code>FaultInjection</code>
+ * section of Config.xml and holds the timeouts used by the nodes to survive
+ * lost messages and dead arbiters.
+ * <p>
+ * Crashes can be scheduled explicitly with <code>Schedule</code>, a list of
+ * <code>nodeId:crashRound-recoverRound</code> entries separated by
+ * <code>;</code> (leave the recover round empty to keep the node down), or
+ * drawn at random every round with <code>CrashProbability</code> and
+ * <code>RecoveryProbability</code>. Crashes need a positive
+ * <code>RequestTimeout</code> and <code>VoteTimeout</code>: without them a
+ * request waits forever for a dead arbiter and a vote granted to a dead
+ * candidate is never taken back.
+ */
+public class FaultInjector {
+    private static boolean loaded;
+
+    private static double lossProbability;
+    private static double duplicateProbability;
+    private static double crashProbability;
+    private static double recoveryProbability;
+    private static int requestTimeout;
+    private static int voteTimeout;
+
+    private static final List<ScheduledFault> schedule = new ArrayList<>();
+    private static final Set<Long> heldDownBySchedule = new HashSet<>();
+    private static final List<Duplicate> pendingDuplicates = new ArrayList<>();
+    private static long crashedNodes;
+
+    private static class ScheduledFault {
+        long nodeId;
+        long crashRound;
+        long recoverRound; // -1 if the node never comes back
+    }
+
+    private static class Duplicate {
+        Node origin;
+        Node destination;
+        Message msg;
+    }
+
+    public static void reset() {
+        loaded = false;
+        schedule.clear();
+        heldDownBySchedule.clear();
+        pendingDuplicates.clear();
+        crashedNodes = 0;
+        load();
+    }
+
+    private static void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        try {
+            lossProbability = doubleParameter("FaultInjection/LossProbability");
+            duplicateProbability = doubleParameter("FaultInjection/DuplicateProbability");
+            crashProbability = doubleParameter("FaultInjection/CrashProbability");
+            recoveryProbability = doubleParameter("FaultInjection/RecoveryProbability");
+            requestTimeout = (int) doubleParameter("FaultInjection/RequestTimeout");
+            voteTimeout = (int) doubleParameter("FaultInjection/VoteTimeout");
+
+            if (Configuration.hasParameter("FaultInjection/Schedule")) {
+                parseSchedule(Configuration.getStringParameter("FaultInjection/Schedule"));
+            }
+
+            if ((crashProbability > 0 || !schedule.isEmpty()) && (requestTimeout <= 0 || voteTimeout <= 0)) {
+                throw new SinalgoFatalException("FaultInjection crashes nodes (CrashProbability or Schedule), "
+                        + "so RequestTimeout and VoteTimeout must be positive: without them the votes held by "
+                        + "crashed nodes never come back");
+            }
+        } catch (CorruptConfigurationEntryException e) {
+            throw new SinalgoFatalException("Invalid FaultInjection entry in Config.xml: " + e.getMessage());
+        }
+    }
+
+    private static double doubleParameter(String key) throws CorruptConfigurationEntryException {
+        return Configuration.hasParameter(key) ? Configuration.getDoubleParameter(key) : 0.0;
+    }
+
+    private static void parseSchedule(String text) {
+        for (String entry : text.split(";")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+
+            try {
+                String[] idAndRounds = entry.split(":");
+                String[] rounds = idAndRounds[1].split("-", -1);
+                ScheduledFault fault = new ScheduledFault();
+                fault.nodeId = Long.parseLong(idAndRounds[0].trim());
+                fault.crashRound = Long.parseLong(rounds[0].trim());
+                fault.recoverRound = rounds.length > 1 && !rounds[1].trim().isEmpty()
+                        ? Long.parseLong(rounds[1].trim()) : -1;
+                schedule.add(fault);
+            } catch (RuntimeException e) {
+                throw new SinalgoFatalException("Invalid FaultInjection/Schedule entry '" + entry
+                        + "', expected nodeId:crashRound-recoverRound");
+            }
+        }
+    }
+
+    public static double getLossProbability() {
+        load();
+        return lossProbability;
+    }
+
+    public static double getDuplicateProbability() {
+        load();
+        return duplicateProbability;
+    }
+
+    // rounds a requester waits for missing votes before asking again, 0 disables it
+    public static int getRequestTimeout() {
+        load();
+        return requestTimeout;
+    }
+
+    // rounds an arbiter waits for the release of its vote before acting, 0 disables it
+    public static int getVoteTimeout() {
+        load();
+        return voteTimeout;
+    }
+
+    /**
+     * Overrides the timeouts of <code>Config.xml</code> until the next
+     * {@link #reset}, for nodes driven without a configuration.
+     */
+    public static void setTimeouts(int requestRounds, int voteRounds) {
+        load();
+        requestTimeout = requestRounds;
+        voteTimeout = voteRounds;
+    }
+
+    public static boolean isAlive(Node n) {
+        return !(n instanceof SandersNode) || !((SandersNode) n).isCrashed();
+    }
+
+    /**
+     * Applies the crashes and recoveries of the current round.
+     */
+    public static void preRound() {
+        load();
+        long round = (long) Global.getCurrentTime();
+
+        for (ScheduledFault fault : schedule) {
+            if (fault.crashRound == round) {
+                heldDownBySchedule.add(fault.nodeId);
+                crash(Tools.getNodeByID(fault.nodeId));
+            } else if (fault.recoverRound == round) {
+                heldDownBySchedule.remove(fault.nodeId);
+                recover(Tools.getNodeByID(fault.nodeId));
+            }
+        }
+
+        if (crashProbability > 0 || (recoveryProbability > 0 && crashedNodes > 0)) {
+            for (Node n : Tools.getNodeList()) {
+                if (isAlive(n)) {
+                    if (crashProbability > 0 && ExecutionLog.decide(ExecutionLog.CRASH, n, null, null,
+                            () -> SimulationRandom.nextDouble() < crashProbability)) {
+                        crash(n);
+                    }
+                } else if (!heldDownBySchedule.contains(n.getID()) && ExecutionLog.decide(ExecutionLog.RECOVERY, n, null,
+                        null, () -> SimulationRandom.nextDouble() < recoveryProbability)) {
+                    recover(n);
+                }
+            }
+        }
+
+        ProtocolStatistics.round(Tools.getNodeList().size(), crashedNodes);
+    }
+
+    private static void crash(Node n) {
+        if (n instanceof SandersNode && isAlive(n)) {
+            ((SandersNode) n).crash();
+            crashedNodes++;
+            ProtocolStatistics.crash();
+        }
+    }
+
+    private static void recover(Node n) {
+        if (n instanceof SandersNode && !isAlive(n)) {
+            ((SandersNode) n).recover();
+            crashedNodes--;
+            ProtocolStatistics.recovery();
+        }
+    }
+
+    public static void writeState(DataOutputStream out) throws IOException {
+        out.writeInt(heldDownBySchedule.size());
+        for (long id : heldDownBySchedule) {
+            out.writeLong(id);
+        }
+    }
+
+    public static void readState(DataInputStream in) throws IOException {
+        heldDownBySchedule.clear();
+        for (int i = in.readInt(); i > 0; i--) {
+            heldDownBySchedule.add(in.readLong());
+        }
+
+        crashedNodes = 0;
+        for (Node n : Tools.getNodeList()) {
+            if (!isAlive(n)) {
+                crashedNodes++;
+            }
+        }
+    }
+
+    /**
+     * Queues a second copy of a delivered message. Copies are sent in
+     * {@link #postRound()} so the framework is never asked to send while it is
+     * delivering.
+     */
+    public static void duplicate(Node origin, Node destination, Message msg) {
+        Duplicate duplicate = new Duplicate();
+        duplicate.origin = origin;
+        duplicate.destination = destination;
+        duplicate.msg = msg.clone();
+        pendingDuplicates.add(duplicate);
+    }
+
+    public static void postRound() {
+        for (Duplicate duplicate : pendingDuplicates) {
+            duplicate.origin.sendDirect(duplicate.msg, duplicate.destination);
+            ProtocolStatistics.messageDuplicated();
+        }
+        pendingDuplicates.clear();
+    }
+}
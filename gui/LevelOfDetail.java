@@ -0,0 +1,64 @@
+package projects.sanders.gui;
+
+import sinalgo.configuration.Configuration;
+import sinalgo.exception.CorruptConfigurationEntryException;
+import sinalgo.exception.SinalgoFatalException;
+import sinalgo.gui.transformation.PositionTransformation;
+import sinalgo.nodes.Node;
+
+import java.awt.*;
+
+/**
+ * Decides how much of the simulation the GUI draws.
+ * <p>
+ * Below <code>LevelOfDetail/DetailZoom</code> the graph is shown as a heatmap:
+ * every node is a filled cell in the color of its state and no edge is drawn.
+ * At or above that zoom nodes get their labels and edges are drawn, but only
+ * for what falls inside the visible area.
+ */
+public class LevelOfDetail {
+    public static final int IDLE = 0;
+    public static final int WAITING = 1;
+    public static final int IN_CS = 2;
+    public static final int CRASHED = 3;
+
+    private static final Color[] STATE_COLORS = {Color.GREEN, Color.ORANGE, Color.RED, Color.GRAY};
+
+    private static double detailZoom = -1;
+
+    public static Color color(int state) {
+        return STATE_COLORS[state];
+    }
+
+    public static boolean isDetailed(PositionTransformation pt) {
+        if (detailZoom < 0) {
+            detailZoom = 1.0;
+            try {
+                if (Configuration.hasParameter("LevelOfDetail/DetailZoom")) {
+                    detailZoom = Configuration.getDoubleParameter("LevelOfDetail/DetailZoom");
+                }
+            } catch (CorruptConfigurationEntryException e) {
+                throw new SinalgoFatalException("Invalid LevelOfDetail entry in Config.xml: " + e.getMessage());
+            }
+        }
+
+        return pt.getZoomFactor() >= detailZoom;
+    }
+
+    /**
+     * Whether a square of <code>2 * margin</code> pixels around the given GUI
+     * position intersects the area being painted.
+     */
+    public static boolean onScreen(Graphics g, int x, int y, int margin) {
+        Rectangle clip = g.getClipBounds();
+        return clip == null || clip.intersects(x - margin, y - margin, 2 * margin, 2 * margin);
+    }
+
+    public static void drawCell(Graphics g, PositionTransformation pt, Node n, int state) {
+        pt.translateToGUIPosition(n.getPosition());
+        int size = Math.max(2, (int) (n.getDefaultDrawingSizeInPixels() * pt.getZoomFactor()));
+
+        g.setColor(STATE_COLORS[state]);
+        g.fillRect(pt.getGuiX() - size / 2, pt.getGuiY() - size / 2, size, size);
+    }
+}
@@ -0,0 +1,36 @@
+package projects.sanders.gui;
+
+/**
+ * Label drawn next to an idle or waiting node. The text is only rebuilt when
+ * one of the values it shows changes, so repainting an unchanged node does not
+ * allocate.
+ */
+public class NodeLabel {
+    private String text;
+    private int yesVotes = -1;
+    private int flags = -1;
+    private long candidate = -1;
+    private int relinquishCounter = -1;
+
+    public String get(int yesVotes, boolean hasVoted, boolean inquired, long candidate, int relinquishCounter) {
+        int flags = (hasVoted ? 1 : 0) | (inquired ? 2 : 0);
+
+        if (text == null || yesVotes != this.yesVotes || flags != this.flags || candidate != this.candidate
+                || relinquishCounter != this.relinquishCounter) {
+            this.yesVotes = yesVotes;
+            this.flags = flags;
+            this.candidate = candidate;
+            this.relinquishCounter = relinquishCounter;
+
+            StringBuilder label = new StringBuilder("yV: ").append(yesVotes);
+            if (hasVoted) {
+                label.append(inquired ? " InqV [" : " V [").append(candidate).append(']');
+            } else {
+                label.append(" NotV");
+            }
+            text = label.append(" Rq: ").append(relinquishCounter).toString();
+        }
+
+        return text;
+    }
+}
@@ -0,0 +1,150 @@
+package projects.sanders.live;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs the protocol as a real lock service: starts one {@link LiveNode}
+ * process per participant on localhost, lets every participant acquire the
+ * critical session the given number of times and reports the acquisition
+ * latency (p50, p99) and the acquisitions per second of the whole cluster.
+ * <p>
+ * Usage: <code>LiveCluster [nodes] [acquisitions per node] [hold time in
+ * microseconds] [base port]</code>, by default 16 nodes, 1000 acquisitions,
+ * no hold time and port 40000. Quorums are the rows and columns of the
+ * coterie matrix, see {@link projects.sanders.protocol.GridQuorum}.
+ */
+public class LiveCluster {
+    private static class Line {
+        final int node;
+        final String text;
+
+        Line(int node, String text) {
+            this.node = node;
+            this.text = text;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int acquisitions = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long holdMicros = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        int basePort = args.length > 3 ? Integer.parseInt(args[3]) : 40000;
+
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String classpath = System.getProperty("java.class.path");
+
+        BlockingQueue<Line> lines = new LinkedBlockingQueue<>();
+        List<Process> processes = new ArrayList<>();
+
+        try {
+            for (int id = 1; id <= nodes; id++) {
+                Process p = new ProcessBuilder(java, "-cp", classpath, LiveNode.class.getName(),
+                        String.valueOf(id), String.valueOf(nodes), String.valueOf(basePort),
+                        String.valueOf(acquisitions), String.valueOf(holdMicros))
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+                processes.add(p);
+                forward(id, p, lines);
+            }
+
+            await(lines, "READY", nodes);
+
+            long start = System.nanoTime();
+            broadcast(processes, "GO");
+            List<Line> done = await(lines, "DONE", nodes);
+            long elapsed = System.nanoTime() - start;
+
+            report(nodes, acquisitions, done, elapsed);
+            broadcast(processes, "STOP");
+
+            for (Process p : processes) {
+                p.waitFor();
+            }
+        } finally {
+            for (Process p : processes) {
+                p.destroy();
+            }
+        }
+    }
+
+    private static void forward(int id, Process p, BlockingQueue<Line> lines) {
+        Thread reader = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(p.getInputStream(), StandardCharsets.US_ASCII))) {
+                String text;
+                while ((text = in.readLine()) != null) {
+                    lines.add(new Line(id, text));
+                }
+            } catch (IOException e) {
+                // the process ended
+            }
+            lines.add(new Line(id, "EXIT"));
+        }, "node-" + id);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private static List<Line> await(BlockingQueue<Line> lines, String what, int count) throws InterruptedException {
+        List<Line> received = new ArrayList<>();
+
+        while (received.size() < count) {
+            Line line = lines.take();
+            if (line.text.startsWith(what)) {
+                received.add(line);
+            } else if (line.text.equals("EXIT")) {
+                throw new IllegalStateException("node " + line.node + " exited before " + what);
+            }
+        }
+
+        return received;
+    }
+
+    private static void broadcast(List<Process> processes, String command) throws IOException {
+        byte[] bytes = (command + "\n").getBytes(StandardCharsets.US_ASCII);
+        for (Process p : processes) {
+            OutputStream out = p.getOutputStream();
+            out.write(bytes);
+            out.flush();
+        }
+    }
+
+    // DONE <relinquishes> <latency in microseconds>...
+    private static void report(int nodes, int acquisitions, List<Line> done, long elapsedNanos) {
+        long[] latencies = new long[nodes * acquisitions];
+        long relinquishes = 0;
+        int count = 0;
+
+        for (Line line : done) {
+            String[] fields = line.text.split(" ");
+            relinquishes += Long.parseLong(fields[1]);
+            for (int i = 2; i < fields.length; i++) {
+                latencies[count++] = Long.parseLong(fields[i]);
+            }
+        }
+        Arrays.sort(latencies, 0, count);
+
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("Nodes: " + nodes + ", acquisitions: " + count + " in " + String.format("%.3f", seconds) + " s");
+        System.out.println("Acquisitions per second: " + String.format("%.1f", count / seconds));
+        System.out.println("Latency p50: " + percentile(latencies, count, 0.50) + " us, p99: "
+                + percentile(latencies, count, 0.99) + " us");
+        System.out.println("Relinquishes: " + relinquishes);
+    }
+
+    private static long percentile(long[] sorted, int count, double p) {
+        if (count == 0) {
+            return 0;
+        }
+        return sorted[Math.max(0, (int) Math.ceil(p * count) - 1)];
+    }
+}
@@ -0,0 +1,331 @@
+package projects.sanders.live;
+
+import projects.sanders.protocol.GridQuorum;
+import projects.sanders.protocol.MessageCodec;
+import projects.sanders.protocol.SandersProtocol;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * One participant of the live runtime, run as its own process by
+ * {@link LiveCluster}. A single thread owns a selector, every socket and the
+ * {@link SandersProtocol} state, so the protocol runs exactly as in the
+ * simulation, one message at a time.
+ * <p>
+ * Participant <code>id</code> listens on <code>basePort + id</code> and
+ * connects to the members of its quorum with a higher ID; the first four bytes
+ * of a connection carry the ID of the connecting side. Messages are
+ * {@link MessageCodec} frames, encoded straight into a per peer buffer that is
+ * written once per selector iteration, so the messages produced while handling
+ * a batch of input leave together.
+ * <p>
+ * The launcher drives the node through stdin and stdout: the node prints
+ * <code>READY</code> once connected to its quorum, starts acquiring on
+ * <code>GO</code>, prints <code>DONE</code> with its acquisition latencies in
+ * microseconds, and keeps serving as an arbiter until <code>STOP</code>.
+ */
+public class LiveNode implements SandersProtocol.Transport {
+    private static final long RETRY_NANOS = 50_000_000L;
+
+    private final int id;
+    private final int basePort;
+    private final int acquisitions;
+    private final long holdNanos;
+
+    private final Selector selector;
+    private final SandersProtocol protocol;
+    private final HashMap<Integer, Peer> peers = new HashMap<>();
+    private final List<Peer> dirty = new ArrayList<>();
+    private final HashMap<Integer, Long> retryAt = new HashMap<>();
+    private final MessageCodec.Frame frame = new MessageCodec.Frame();
+    private int connected;
+    private boolean readyPrinted;
+
+    private volatile boolean go;
+    private volatile boolean stop;
+
+    private long requestedAt;
+    private long exitAt = -1;
+    private final long[] latencies;
+    private int acquired;
+
+    private static class Peer {
+        int id = -1;
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(1 << 14);
+        ByteBuffer out = ByteBuffer.allocate(1 << 12);
+        boolean dirty;
+
+        Peer(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 5) {
+            System.err.println("usage: LiveNode <id> <nodes> <basePort> <acquisitions> <holdMicros>");
+            System.exit(1);
+        }
+
+        new LiveNode(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]), Long.parseLong(args[4]) * 1000).run();
+    }
+
+    LiveNode(int id, int nodes, int basePort, int acquisitions, long holdNanos) throws IOException {
+        this.id = id;
+        this.basePort = basePort;
+        this.acquisitions = acquisitions;
+        this.holdNanos = holdNanos;
+        this.latencies = new long[acquisitions];
+        this.selector = Selector.open();
+        this.protocol = new SandersProtocol(id, new GridQuorum(nodes), this);
+    }
+
+    void run() throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", basePort + id));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        for (int member : protocol.getQuorum()) {
+            if (member > id) {
+                connect(member);
+            }
+        }
+        startControlThread();
+
+        while (!stop) {
+            selector.select(timeoutMillis());
+
+            for (SelectionKey key : selector.selectedKeys()) {
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept(server);
+                } else if (key.isConnectable()) {
+                    finishConnect(key);
+                } else {
+                    if (key.isReadable()) {
+                        read((Peer) key.attachment());
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        markDirty((Peer) key.attachment());
+                    }
+                }
+            }
+            selector.selectedKeys().clear();
+
+            retryConnections();
+            step();
+            flush();
+        }
+
+        selector.close();
+        server.close();
+    }
+
+    @Override
+    public void send(int to, byte type, int timestamp, int grant) {
+        Peer peer = peers.get(to);
+        if (peer.out.remaining() < MessageCodec.MAX_FRAME_SIZE) {
+            ByteBuffer bigger = ByteBuffer.allocate(peer.out.capacity() * 2);
+            peer.out.flip();
+            bigger.put(peer.out);
+            peer.out = bigger;
+        }
+
+        MessageCodec.encode(peer.out, type, id, timestamp, grant);
+        markDirty(peer);
+    }
+
+    // acquisition loop of the benchmark, run between selector iterations
+    private void step() {
+        long now = System.nanoTime();
+
+        if (protocol.isInCs() && now >= exitAt) {
+            protocol.release();
+            exitAt = -1;
+            if (acquired == acquisitions) {
+                printDone();
+            }
+        }
+
+        if (go && !protocol.isInCs() && !protocol.isWaitingCS() && acquired < acquisitions) {
+            requestedAt = System.nanoTime();
+            protocol.request(this::entered);
+        }
+    }
+
+    private void entered() {
+        long now = System.nanoTime();
+        latencies[acquired++] = now - requestedAt;
+        exitAt = now + holdNanos;
+    }
+
+    private long timeoutMillis() {
+        if (exitAt >= 0) {
+            return Math.max(1, (exitAt - System.nanoTime()) / 1_000_000);
+        }
+        return retryAt.isEmpty() ? 0 : RETRY_NANOS / 1_000_000;
+    }
+
+    private void connect(int member) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.connect(new InetSocketAddress("127.0.0.1", basePort + member));
+
+        Peer peer = new Peer(channel);
+        peer.id = member;
+        channel.register(selector, SelectionKey.OP_CONNECT, peer);
+    }
+
+    private void finishConnect(SelectionKey key) throws IOException {
+        Peer peer = (Peer) key.attachment();
+        try {
+            peer.channel.finishConnect();
+        } catch (IOException e) {
+            // the other process is not listening yet
+            key.cancel();
+            peer.channel.close();
+            retryAt.put(peer.id, System.nanoTime() + RETRY_NANOS);
+            return;
+        }
+
+        key.interestOps(SelectionKey.OP_READ);
+        peer.out.putInt(id);
+        markDirty(peer);
+        addPeer(peer);
+    }
+
+    private void retryConnections() throws IOException {
+        if (retryAt.isEmpty()) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        for (Integer member : new ArrayList<>(retryAt.keySet())) {
+            if (retryAt.get(member) <= now) {
+                retryAt.remove(member);
+                connect(member);
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.register(selector, SelectionKey.OP_READ, new Peer(channel));
+    }
+
+    private void addPeer(Peer peer) {
+        peers.put(peer.id, peer);
+        connected++;
+
+        if (!readyPrinted && connected == protocol.getQuorum().length - 1) {
+            readyPrinted = true;
+            System.out.println("READY");
+            System.out.flush();
+        }
+    }
+
+    private void read(Peer peer) throws IOException {
+        if (peer.channel.read(peer.in) < 0) {
+            // the other process stopped, which only happens at the end of the run
+            peer.channel.close();
+            return;
+        }
+
+        peer.in.flip();
+        if (peer.id < 0) {
+            if (peer.in.remaining() < 4) {
+                peer.in.compact();
+                return;
+            }
+            peer.id = peer.in.getInt();
+            addPeer(peer);
+        }
+
+        while (MessageCodec.decode(peer.in, frame)) {
+            protocol.handle((int) frame.sender, frame.type, frame.timestamp, frame.grant);
+        }
+        peer.in.compact();
+    }
+
+    private void markDirty(Peer peer) {
+        if (!peer.dirty) {
+            peer.dirty = true;
+            dirty.add(peer);
+        }
+    }
+
+    private void flush() throws IOException {
+        for (Peer peer : dirty) {
+            peer.dirty = false;
+            if (!peer.channel.isOpen()) {
+                continue;
+            }
+
+            peer.out.flip();
+            peer.channel.write(peer.out);
+            peer.out.compact();
+
+            SelectionKey key = peer.channel.keyFor(selector);
+            if (peer.out.position() > 0) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+        dirty.clear();
+    }
+
+    private void printDone() {
+        StringBuilder line = new StringBuilder("DONE ").append(protocol.getRelinquishCounter());
+        for (long latency : latencies) {
+            line.append(' ').append(latency / 1000);
+        }
+        System.out.println(line);
+        System.out.flush();
+    }
+
+    private void startControlThread() {
+        Thread control = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.equals("GO")) {
+                        go = true;
+                    } else if (line.equals("STOP")) {
+                        break;
+                    }
+                    selector.wakeup();
+                }
+            } catch (IOException e) {
+                // launcher is gone, stop as well
+            }
+            stop = true;
+            selector.wakeup();
+        }, "control-" + id);
+        control.setDaemon(true);
+        control.start();
+    }
+}
@@ -0,0 +1,26 @@
+package projects.sanders.lock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lock of one participant of a {@link LockService}. Holding it means the
+ * participant is in critical session, so at most one lock of the service is
+ * held at any time. Not reentrant, and used by one thread at a time, like a
+ * node of the simulation.
+ */
+public interface DistributedLock {
+    /**
+     * When interrupted while waiting the request is given up, as with a
+     * timeout of {@link #tryLock}, and the exception is thrown. If the lock
+     * was granted before the interrupt was seen, it is held and the interrupt
+     * status of the thread is set again.
+     */
+    void lock() throws InterruptedException;
+
+    /**
+     * @return true if the lock was acquired within the timeout
+     */
+    boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException;
+
+    void unlock();
+}
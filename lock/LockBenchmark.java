@@ -0,0 +1,99 @@
+package projects.sanders.lock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compares the throughput of a {@link LockService} with a
+ * {@link ReentrantLock} guarding the same critical section.
+ * <p>
+ * Usage: <code>LockBenchmark [participants] [threads] [seconds]</code>, by
+ * default 1024 participants, 8 threads and 5 seconds. Participant i is used
+ * by thread <code>i % threads</code> only, which goes over its participants
+ * in turn, so there must be at least as many participants as threads. The
+ * critical section increments a plain counter and checks that no other
+ * thread is inside.
+ */
+public class LockBenchmark {
+    private interface Section {
+        void run(int thread, long iteration) throws InterruptedException;
+    }
+
+    private static long counter;
+    private static final AtomicInteger inside = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        int participants = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        if (threads > participants) {
+            // two threads would share a participant, which allows one request at a time
+            System.err.println("threads (" + threads + ") must not be more than participants (" + participants + ")");
+            System.exit(1);
+        }
+
+        ReentrantLock reentrantLock = new ReentrantLock();
+        report("ReentrantLock", threads, seconds, (thread, iteration) -> {
+            reentrantLock.lock();
+            try {
+                criticalSection();
+            } finally {
+                reentrantLock.unlock();
+            }
+        });
+
+        LockService service = new LockService(participants);
+        int perThread = Math.max(1, participants / threads);
+        report("LockService (" + participants + " participants)", threads, seconds, (thread, iteration) -> {
+            int id = 1 + (int) ((thread + (iteration % perThread) * threads) % participants);
+            DistributedLock lock = service.lock(id);
+            lock.lock();
+            try {
+                criticalSection();
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    private static void criticalSection() {
+        if (inside.incrementAndGet() != 1) {
+            throw new IllegalStateException("two threads in critical section");
+        }
+        counter++;
+        inside.decrementAndGet();
+    }
+
+    private static void report(String name, int threads, long seconds, Section section) throws InterruptedException {
+        counter = 0;
+        AtomicLong operations = new AtomicLong();
+        CountDownLatch finished = new CountDownLatch(threads);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                long done = 0;
+                try {
+                    while (System.nanoTime() < deadline) {
+                        section.run(thread, done);
+                        done++;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                operations.addAndGet(done);
+                finished.countDown();
+            }, "worker-" + t);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        finished.await();
+
+        System.out.println(name + ": " + operations.get() / seconds + " acquisitions/s, "
+                + threads + " threads, counter " + (counter == operations.get() ? "consistent" : "INCONSISTENT"));
+    }
+}
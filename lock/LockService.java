@@ -0,0 +1,194 @@
+package projects.sanders.lock;
+
+import projects.sanders.protocol.GridQuorum;
+import projects.sanders.protocol.QuorumLayout;
+import projects.sanders.protocol.SandersProtocol;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the protocol inside one JVM so that application code can use it as a
+ * lock. Every participant is an actor: a {@link SandersProtocol} plus a
+ * lock-free mailbox, drained by one task of the executor at a time. Messages
+ * between participants and lock/unlock calls all go through the mailboxes, so
+ * a participant never needs a lock of its own.
+ * <p>
+ * An idle participant costs no thread, only its state and an empty queue, so
+ * thousands of them fit in one JVM. The executor is pluggable: any pool works,
+ * and on a JVM with virtual threads a virtual-thread-per-task executor gives
+ * every drain its own virtual thread.
+ */
+public class LockService {
+    private static final byte LOCK = -1;
+    private static final byte UNLOCK = -2;
+
+    private final Participant[] participants;
+    private final Executor executor;
+
+    private static class Envelope {
+        final int sender;
+        final byte type;
+        final int timestamp;
+        final int grant;
+        final CompletableFuture<Void> waiter;
+
+        Envelope(int sender, byte type, int timestamp, int grant, CompletableFuture<Void> waiter) {
+            this.sender = sender;
+            this.type = type;
+            this.timestamp = timestamp;
+            this.grant = grant;
+            this.waiter = waiter;
+        }
+    }
+
+    public LockService(int size) {
+        this(new GridQuorum(size), ForkJoinPool.commonPool());
+    }
+
+    public LockService(QuorumLayout layout, Executor executor) {
+        this.executor = executor;
+        this.participants = new Participant[layout.size() + 1];
+        for (int id = 1; id <= layout.size(); id++) {
+            participants[id] = new Participant(id, layout);
+        }
+    }
+
+    public int size() {
+        return participants.length - 1;
+    }
+
+    /**
+     * The lock of participant <code>id</code>, from 1 to {@link #size()}.
+     */
+    public DistributedLock lock(int id) {
+        return participants[id];
+    }
+
+    private class Participant implements DistributedLock, SandersProtocol.Transport {
+        private final SandersProtocol protocol;
+        private final ConcurrentLinkedQueue<Envelope> mailbox = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        // touched only while draining
+        private CompletableFuture<Void> waiter;
+        private boolean entered;
+
+        // touched only by the application thread using the lock
+        private boolean held;
+
+        Participant(int id, QuorumLayout layout) {
+            this.protocol = new SandersProtocol(id, layout, this);
+        }
+
+        @Override
+        public void lock() throws InterruptedException {
+            CompletableFuture<Void> granted = acquire();
+            try {
+                granted.get();
+            } catch (InterruptedException e) {
+                if (granted.cancel(false)) {
+                    throw e;
+                }
+                // the votes came first, keep the lock and the interrupt
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            held = true;
+        }
+
+        @Override
+        public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+            CompletableFuture<Void> granted = acquire();
+            try {
+                granted.get(timeout, unit);
+            } catch (TimeoutException e) {
+                // if the votes arrive later the participant leaves right away
+                if (granted.cancel(false)) {
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                if (granted.cancel(false)) {
+                    throw e;
+                }
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+
+            held = true;
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+            if (!held) {
+                throw new IllegalMonitorStateException("participant " + protocol.getId() + " does not hold the lock");
+            }
+            held = false;
+            deliver(new Envelope(0, UNLOCK, 0, 0, null));
+        }
+
+        private CompletableFuture<Void> acquire() {
+            if (held) {
+                throw new IllegalMonitorStateException("participant " + protocol.getId() + " already holds the lock");
+            }
+
+            CompletableFuture<Void> granted = new CompletableFuture<>();
+            deliver(new Envelope(0, LOCK, 0, 0, granted));
+            return granted;
+        }
+
+        @Override
+        public void send(int to, byte type, int timestamp, int grant) {
+            participants[to].deliver(new Envelope(protocol.getId(), type, timestamp, grant, null));
+        }
+
+        private void deliver(Envelope envelope) {
+            mailbox.add(envelope);
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                Envelope envelope;
+                while ((envelope = mailbox.poll()) != null) {
+                    process(envelope);
+                }
+                scheduled.set(false);
+                // a message may have arrived after the last poll
+            } while (!mailbox.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+
+        private void process(Envelope envelope) {
+            if (envelope.type == LOCK) {
+                waiter = envelope.waiter;
+                // a request abandoned by tryLock is still running, wait for it
+                if (!protocol.isWaitingCS()) {
+                    protocol.request(() -> entered = true);
+                }
+            } else if (envelope.type == UNLOCK) {
+                protocol.release();
+            } else {
+                protocol.handle(envelope.sender, envelope.type, envelope.timestamp, envelope.grant);
+            }
+
+            if (entered) {
+                entered = false;
+                if (!waiter.complete(null)) {
+                    // the caller gave up waiting
+                    protocol.release();
+                }
+            }
+        }
+    }
+}
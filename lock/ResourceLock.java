@@ -0,0 +1,33 @@
+package projects.sanders.lock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Locks of one participant of a {@link ResourceLockService} over a set of
+ * resources, taken and given back together. While a participant holds a set,
+ * no other participant holds any of its resources. Not reentrant, and used by
+ * one thread at a time, like {@link DistributedLock}.
+ */
+public interface ResourceLock {
+    /**
+     * When interrupted while waiting the request is given up, as with a
+     * timeout of {@link #tryLock}, and the exception is thrown. If the
+     * resources were granted before the interrupt was seen, they are held
+     * and the interrupt status of the thread is set again.
+     */
+    void lock(int... resources) throws InterruptedException;
+
+    /**
+     * A request given up on keeps running until it gets its resources, which
+     * are then given back; the next acquisition of the participant waits for
+     * that, whatever resources it asks for.
+     *
+     * @return true if every resource was acquired within the timeout
+     */
+    boolean tryLock(long timeout, TimeUnit unit, int... resources) throws InterruptedException;
+
+    /**
+     * Gives back every resource of the last acquisition.
+     */
+    void unlock();
+}
@@ -0,0 +1,116 @@
+package projects.sanders.lock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how the throughput of a {@link ResourceLockService} grows with the
+ * number of resources the threads contend for.
+ * <p>
+ * Usage: <code>ResourceLockBenchmark [participants] [threads] [seconds]
+ * [resources per acquisition]</code>, by default 1024 participants, 64
+ * threads, 3 seconds per run and 2 resources. Each run draws the resources of
+ * every acquisition at random among 1, 4, 16, ... 1024 resources, one run per
+ * count. Participants are used by the threads in turn as in
+ * {@link LockBenchmark}, so there must be at least as many participants as
+ * threads. The critical section checks that no other thread
+ * holds any of its resources.
+ */
+public class ResourceLockBenchmark {
+    private static final int MAX_RESOURCES = 1024;
+
+    private static final AtomicIntegerArray inside = new AtomicIntegerArray(MAX_RESOURCES);
+    private static final AtomicLong conflicts = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int participants = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 3;
+        int perAcquisition = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        if (threads > participants) {
+            // two threads would share a participant, which allows one request at a time
+            System.err.println("threads (" + threads + ") must not be more than participants (" + participants + ")");
+            System.exit(1);
+        }
+
+        ResourceLockService service = new ResourceLockService(participants);
+        for (int resources = 1; resources <= MAX_RESOURCES; resources *= 4) {
+            report(service, resources, Math.min(perAcquisition, resources), threads, seconds);
+        }
+    }
+
+    private static void report(ResourceLockService service, int resources, int perAcquisition, int threads,
+                               long seconds) throws InterruptedException {
+        conflicts.set(0);
+        AtomicLong operations = new AtomicLong();
+        CountDownLatch finished = new CountDownLatch(threads);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        int participants = service.size();
+        int perThread = Math.max(1, participants / threads);
+
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int[] wanted = new int[perAcquisition];
+                long done = 0;
+                try {
+                    while (System.nanoTime() < deadline) {
+                        int id = 1 + (int) ((thread + (done % perThread) * threads) % participants);
+                        pick(random, resources, wanted);
+
+                        ResourceLock lock = service.lock(id);
+                        lock.lock(wanted);
+                        try {
+                            criticalSection(wanted);
+                        } finally {
+                            lock.unlock();
+                        }
+                        done++;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                operations.addAndGet(done);
+                finished.countDown();
+            }, "worker-" + t);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        finished.await();
+
+        System.out.println(resources + " resources, " + perAcquisition + " per acquisition: "
+                + operations.get() / seconds + " acquisitions/s, " + threads + " threads, "
+                + (conflicts.get() == 0 ? "no conflict" : conflicts.get() + " CONFLICTS"));
+    }
+
+    // distinct resources, drawn uniformly
+    private static void pick(ThreadLocalRandom random, int resources, int[] wanted) {
+        for (int i = 0; i < wanted.length; i++) {
+            int resource;
+            boolean taken;
+            do {
+                resource = random.nextInt(resources);
+                taken = false;
+                for (int j = 0; j < i; j++) {
+                    taken |= wanted[j] == resource;
+                }
+            } while (taken);
+            wanted[i] = resource;
+        }
+    }
+
+    private static void criticalSection(int[] resources) {
+        for (int resource : resources) {
+            if (inside.incrementAndGet(resource) != 1) {
+                conflicts.incrementAndGet();
+            }
+        }
+        for (int resource : resources) {
+            inside.decrementAndGet(resource);
+        }
+    }
+}
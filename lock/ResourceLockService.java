@@ -0,0 +1,202 @@
+package projects.sanders.lock;
+
+import projects.sanders.protocol.GridQuorum;
+import projects.sanders.protocol.MultiResourceProtocol;
+import projects.sanders.protocol.QuorumLayout;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link LockService} for many resources: the participants run a
+ * {@link MultiResourceProtocol}, so one set of actors and one quorum guard any
+ * number of resources, and a {@link ResourceLock} takes several of them at
+ * once without risk of deadlock. Acquisitions of disjoint resources do not
+ * wait for each other, so the throughput grows with the number of resources
+ * in use until the executor is busy.
+ */
+public class ResourceLockService {
+    private static final byte LOCK = -1;
+    private static final byte UNLOCK = -2;
+
+    private final Participant[] participants;
+    private final Executor executor;
+
+    private static class Envelope {
+        final int sender;
+        final byte type;
+        final int timestamp;
+        final int[] pairs;
+        final CompletableFuture<Void> waiter;
+
+        Envelope(int sender, byte type, int timestamp, int[] pairs, CompletableFuture<Void> waiter) {
+            this.sender = sender;
+            this.type = type;
+            this.timestamp = timestamp;
+            this.pairs = pairs;
+            this.waiter = waiter;
+        }
+    }
+
+    public ResourceLockService(int size) {
+        this(new GridQuorum(size), ForkJoinPool.commonPool());
+    }
+
+    public ResourceLockService(QuorumLayout layout, Executor executor) {
+        this.executor = executor;
+        this.participants = new Participant[layout.size() + 1];
+        for (int id = 1; id <= layout.size(); id++) {
+            participants[id] = new Participant(id, layout);
+        }
+    }
+
+    public int size() {
+        return participants.length - 1;
+    }
+
+    /**
+     * The locks of participant <code>id</code>, from 1 to {@link #size()}.
+     */
+    public ResourceLock lock(int id) {
+        return participants[id];
+    }
+
+    private class Participant implements ResourceLock, MultiResourceProtocol.Transport {
+        private final MultiResourceProtocol protocol;
+        private final ConcurrentLinkedQueue<Envelope> mailbox = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        // touched only while draining
+        private CompletableFuture<Void> waiter;
+        private int[] wanted;
+        private boolean requestAgain;
+        private boolean entered;
+
+        // touched only by the application thread using the locks
+        private boolean held;
+
+        Participant(int id, QuorumLayout layout) {
+            this.protocol = new MultiResourceProtocol(id, layout, this);
+        }
+
+        @Override
+        public void lock(int... resources) throws InterruptedException {
+            CompletableFuture<Void> granted = acquire(resources);
+            try {
+                granted.get();
+            } catch (InterruptedException e) {
+                if (granted.cancel(false)) {
+                    throw e;
+                }
+                // the votes came first, keep the resources and the interrupt
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            held = true;
+        }
+
+        @Override
+        public boolean tryLock(long timeout, TimeUnit unit, int... resources) throws InterruptedException {
+            CompletableFuture<Void> granted = acquire(resources);
+            try {
+                granted.get(timeout, unit);
+            } catch (TimeoutException e) {
+                // if the votes arrive later the participant leaves right away
+                if (granted.cancel(false)) {
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                if (granted.cancel(false)) {
+                    throw e;
+                }
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+
+            held = true;
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+            if (!held) {
+                throw new IllegalMonitorStateException("participant " + protocol.getId() + " holds no resource");
+            }
+            held = false;
+            deliver(new Envelope(0, UNLOCK, 0, null, null));
+        }
+
+        private CompletableFuture<Void> acquire(int[] resources) {
+            if (held) {
+                throw new IllegalMonitorStateException("participant " + protocol.getId() + " already holds resources");
+            }
+            if (resources.length == 0) {
+                throw new IllegalArgumentException("no resource to lock");
+            }
+
+            CompletableFuture<Void> granted = new CompletableFuture<>();
+            deliver(new Envelope(0, LOCK, 0, resources.clone(), granted));
+            return granted;
+        }
+
+        @Override
+        public void send(int to, byte type, int timestamp, int[] pairs) {
+            participants[to].deliver(new Envelope(protocol.getId(), type, timestamp, pairs, null));
+        }
+
+        private void deliver(Envelope envelope) {
+            mailbox.add(envelope);
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                Envelope envelope;
+                while ((envelope = mailbox.poll()) != null) {
+                    process(envelope);
+                }
+                scheduled.set(false);
+                // a message may have arrived after the last poll
+            } while (!mailbox.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+
+        private void process(Envelope envelope) {
+            if (envelope.type == LOCK) {
+                waiter = envelope.waiter;
+                wanted = envelope.pairs;
+                // a request abandoned by tryLock is still running, possibly for other resources: wait for it
+                if (protocol.isWaitingCS()) {
+                    requestAgain = true;
+                } else {
+                    protocol.request(wanted, () -> entered = true);
+                }
+            } else if (envelope.type == UNLOCK) {
+                protocol.release();
+            } else {
+                protocol.handle(envelope.sender, envelope.type, envelope.timestamp, envelope.pairs);
+            }
+
+            while (entered) {
+                entered = false;
+                if (requestAgain) {
+                    requestAgain = false;
+                    protocol.release();
+                    protocol.request(wanted, () -> entered = true);
+                } else if (!waiter.complete(null)) {
+                    // the caller gave up waiting
+                    protocol.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package projects.sanders.logging;
+
+import projects.sanders.LogL;
+import sinalgo.configuration.Configuration;
+import sinalgo.exception.CorruptConfigurationEntryException;
+import sinalgo.exception.SinalgoFatalException;
+import sinalgo.tools.logging.Logging;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Debug log of the protocol, filtered at runtime by category and level
+ * (<code>Log</code> entry of <code>Config.xml</code>):
+ * <ul>
+ * <li><code>Send</code>: messages received by the nodes</li>
+ * <li><code>Protocol</code>: requests, crashes and recoveries, starving
+ * requests and wait-for cycles</li>
+ * <li><code>Round</code>: per round state, like deferred queues</li>
+ * </ul>
+ * Callers check {@link #isOn} before building the text, so a disabled
+ * category costs one array read.
+ * <p>
+ * With <code>Backend="sinalgo"</code> the records go to the framework
+ * logfile as before. With <code>Backend="async"</code> the simulation thread
+ * only appends them to a lock-free queue; a background thread writes them to
+ * <code>File</code>, which is rotated to <code>File.1</code>,
+ * <code>File.2</code>, ... when it reaches <code>MaxFileSize</code> bytes,
+ * keeping at most <code>MaxFiles</code> files. When more than
+ * <code>QueueCapacity</code> records wait for the writer, new records are
+ * dropped and counted instead of slowing down the rounds.
+ */
+public class ProtocolLog {
+    public enum Category { SEND, PROTOCOL, ROUND }
+
+    public enum Level { OFF, INFO, DEBUG }
+
+    private enum Backend { SINALGO, ASYNC }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static boolean loaded;
+    private static Backend backend = Backend.SINALGO;
+    private static String file = "logs/sanders.log";
+    private static long maxFileSize = 64L << 20;
+    private static int maxFiles = 4;
+    private static int queueCapacity = 100000;
+
+    // highest level logged, by category
+    private static final Level[] levels = {Level.DEBUG, Level.DEBUG, Level.DEBUG};
+
+    private static final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pending = new AtomicInteger();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile boolean running;
+    private static volatile boolean idle;
+    private static volatile IOException failure;
+    private static Thread writer;
+
+    private static Logging logger = Logging.getLogger("logfile.txt");
+
+    public static void reset() {
+        close();
+        load();
+
+        dropped.set(0);
+        failure = null;
+
+        if (backend == Backend.ASYNC) {
+            running = true;
+            writer = new Thread(ProtocolLog::drain, "sanders-log-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    private static void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        try {
+            if (Configuration.hasParameter("Log/Backend")) {
+                String value = Configuration.getStringParameter("Log/Backend");
+                if (value.equalsIgnoreCase("sinalgo")) {
+                    backend = Backend.SINALGO;
+                } else if (value.equalsIgnoreCase("async")) {
+                    backend = Backend.ASYNC;
+                } else {
+                    throw new SinalgoFatalException("Log/Backend must be sinalgo or async, not '" + value + "'");
+                }
+            }
+            if (Configuration.hasParameter("Log/File")) {
+                file = Configuration.getStringParameter("Log/File");
+            }
+            if (Configuration.hasParameter("Log/MaxFileSize")) {
+                maxFileSize = Math.max(1024, Configuration.getIntegerParameter("Log/MaxFileSize"));
+            }
+            if (Configuration.hasParameter("Log/MaxFiles")) {
+                maxFiles = Math.max(1, Configuration.getIntegerParameter("Log/MaxFiles"));
+            }
+            if (Configuration.hasParameter("Log/QueueCapacity")) {
+                queueCapacity = Math.max(1, Configuration.getIntegerParameter("Log/QueueCapacity"));
+            }
+            levels[Category.SEND.ordinal()] = level("Log/Send");
+            levels[Category.PROTOCOL.ordinal()] = level("Log/Protocol");
+            levels[Category.ROUND.ordinal()] = level("Log/Round");
+        } catch (CorruptConfigurationEntryException e) {
+            throw new SinalgoFatalException("Invalid Log entry in Config.xml: " + e.getMessage());
+        }
+    }
+
+    private static Level level(String key) throws CorruptConfigurationEntryException {
+        if (!Configuration.hasParameter(key)) {
+            return Level.DEBUG;
+        }
+        String value = Configuration.getStringParameter(key);
+        for (Level level : Level.values()) {
+            if (level.name().equalsIgnoreCase(value)) {
+                return level;
+            }
+        }
+        throw new SinalgoFatalException(key + " must be off, info or debug, not '" + value + "'");
+    }
+
+    public static boolean isOn(Category category, Level level) {
+        return LogL.debugLog && levels[category.ordinal()].compareTo(level) >= 0;
+    }
+
+    public static void setLevel(Category category, Level level) {
+        levels[category.ordinal()] = level;
+    }
+
+    public static void log(Category category, Level level, String text) {
+        if (!isOn(category, level)) {
+            return;
+        }
+
+        if (backend == Backend.SINALGO || !running || failure != null) {
+            logger.logln(text);
+            return;
+        }
+
+        if (pending.incrementAndGet() > queueCapacity) {
+            pending.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.offer(text);
+        if (idle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Stops the writer after it wrote every queued record.
+     */
+    public static void close() {
+        if (writer == null) {
+            return;
+        }
+
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+
+        if (failure != null) {
+            logger.logln("Could not write protocol log " + file + ": " + failure.getMessage());
+        }
+        if (dropped.get() > 0) {
+            logger.logln("Protocol log dropped " + dropped.get() + " records, the writer could not keep up");
+        }
+    }
+
+    // background thread
+    private static void drain() {
+        Writer out = null;
+        long size = 0;
+
+        try {
+            File f = new File(file);
+            if (f.getParentFile() != null) {
+                f.getParentFile().mkdirs();
+            }
+            out = open(f);
+            size = f.length();
+
+            while (true) {
+                String text = queue.poll();
+                if (text == null) {
+                    if (!running) {
+                        break;
+                    }
+                    out.flush();
+                    idle = true;
+                    // a record queued before idle was seen is picked up here
+                    if (queue.isEmpty() && running) {
+                        LockSupport.parkNanos(IDLE_NANOS);
+                    }
+                    idle = false;
+                    continue;
+                }
+                pending.decrementAndGet();
+
+                // characters, close enough to bytes for the ASCII of the records
+                if (size + text.length() + 1 > maxFileSize && size > 0) {
+                    out.close();
+                    rotate(f);
+                    out = open(f);
+                    size = 0;
+                }
+                out.write(text);
+                out.write('\n');
+                size += text.length() + 1;
+            }
+        } catch (IOException e) {
+            failure = e;
+            queue.clear();
+            pending.set(0);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+    }
+
+    private static Writer open(File f) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(f.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND), StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    // file.(i) becomes file.(i + 1), the oldest one is deleted
+    private static void rotate(File f) throws IOException {
+        if (maxFiles == 1) {
+            Files.delete(f.toPath());
+            return;
+        }
+
+        Files.deleteIfExists(new File(f.getPath() + "." + (maxFiles - 1)).toPath());
+        for (int i = maxFiles - 2; i >= 1; i--) {
+            File older = new File(f.getPath() + "." + i);
+            if (older.exists()) {
+                Files.move(older.toPath(), new File(f.getPath() + "." + (i + 1)).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(f.toPath(), new File(f.getPath() + ".1").toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
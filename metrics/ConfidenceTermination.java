@@ -0,0 +1,244 @@
+package projects.sanders.metrics;
+
+import sinalgo.configuration.Configuration;
+import sinalgo.exception.CorruptConfigurationEntryException;
+import sinalgo.exception.SinalgoFatalException;
+import sinalgo.runtime.Global;
+import sinalgo.tools.logging.Logging;
+
+/**
+ * Stops a statistical run once the mean entry latency and the throughput
+ * (entries per round) are known precisely enough, instead of after a fixed
+ * number of rounds.
+ * <p>
+ * Both are estimated by batch means: after <code>WarmUp</code> rounds, every
+ * <code>BatchRounds</code> rounds make a batch, and the batch means are taken
+ * as independent samples of the steady state. At most {@value #MAX_BATCHES}
+ * batches are kept; when that many are full, neighbouring batches are merged,
+ * which doubles the batch size and keeps consecutive batches from being
+ * correlated in long runs. The run stops when, with at least
+ * <code>MinBatches</code> batches, the confidence interval at level
+ * <code>Confidence</code> of both estimates is narrower than
+ * <code>RelativeWidth</code> times the estimate (half width over mean).
+ */
+public class ConfidenceTermination {
+    private static final int MAX_BATCHES = 64;
+
+    private static boolean loaded;
+    private static boolean enabled;
+    private static long warmUp = 1000;
+    private static long batchRounds = 100;
+    private static int minBatches = 20;
+    private static double confidence = 0.95;
+    private static double relativeWidth = 0.05;
+
+    // current batch
+    private static long batchSize;
+    private static long roundsInBatch;
+    private static long entriesInBatch;
+    private static long latencyInBatch;
+
+    // closed batches
+    private static final long[] batchEntries = new long[MAX_BATCHES];
+    private static final long[] batchLatency = new long[MAX_BATCHES];
+    private static int batches;
+
+    private static boolean started;
+    private static long lastEntries;
+    private static long lastLatency;
+
+    private static boolean converged;
+    private static String result = "not reached";
+
+    private static Logging logger = Logging.getLogger("logfile.txt");
+
+    public static void reset() {
+        load();
+
+        batchSize = batchRounds;
+        roundsInBatch = 0;
+        entriesInBatch = 0;
+        latencyInBatch = 0;
+        batches = 0;
+        started = false;
+        converged = false;
+        result = "not reached";
+    }
+
+    private static void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        try {
+            if (Configuration.hasParameter("ConfidenceTermination/Enabled")) {
+                enabled = Configuration.getBooleanParameter("ConfidenceTermination/Enabled");
+            }
+            if (Configuration.hasParameter("ConfidenceTermination/WarmUp")) {
+                warmUp = Configuration.getIntegerParameter("ConfidenceTermination/WarmUp");
+            }
+            if (Configuration.hasParameter("ConfidenceTermination/BatchRounds")) {
+                batchRounds = Math.max(1, Configuration.getIntegerParameter("ConfidenceTermination/BatchRounds"));
+            }
+            if (Configuration.hasParameter("ConfidenceTermination/MinBatches")) {
+                minBatches = Math.max(2, Configuration.getIntegerParameter("ConfidenceTermination/MinBatches"));
+            }
+            if (Configuration.hasParameter("ConfidenceTermination/Confidence")) {
+                confidence = Configuration.getDoubleParameter("ConfidenceTermination/Confidence");
+            }
+            if (Configuration.hasParameter("ConfidenceTermination/RelativeWidth")) {
+                relativeWidth = Configuration.getDoubleParameter("ConfidenceTermination/RelativeWidth");
+            }
+        } catch (CorruptConfigurationEntryException e) {
+            throw new SinalgoFatalException("Invalid ConfidenceTermination entry in Config.xml: " + e.getMessage());
+        }
+
+        if (confidence <= 0 || confidence >= 1) {
+            throw new SinalgoFatalException("ConfidenceTermination/Confidence must be between 0 and 1");
+        }
+        // with few batches merging would leave less than the minimum
+        minBatches = Math.min(minBatches, MAX_BATCHES / 2);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static boolean hasConverged() {
+        return converged;
+    }
+
+    public static void postRound() {
+        if (!enabled || converged) {
+            return;
+        }
+
+        long entries = ProtocolStatistics.getEntries();
+        long latency = ProtocolStatistics.getTotalEntryLatency();
+
+        // counters may start from a checkpoint, so the first round only sets the base
+        if (!started) {
+            started = true;
+            lastEntries = entries;
+            lastLatency = latency;
+            return;
+        }
+
+        long newEntries = entries - lastEntries;
+        long newLatency = latency - lastLatency;
+        lastEntries = entries;
+        lastLatency = latency;
+
+        if ((long) Global.getCurrentTime() <= warmUp) {
+            return;
+        }
+
+        entriesInBatch += newEntries;
+        latencyInBatch += newLatency;
+        if (++roundsInBatch < batchSize) {
+            return;
+        }
+
+        batchEntries[batches] = entriesInBatch;
+        batchLatency[batches] = latencyInBatch;
+        batches++;
+        roundsInBatch = 0;
+        entriesInBatch = 0;
+        latencyInBatch = 0;
+
+        if (batches == MAX_BATCHES) {
+            mergeBatches();
+        }
+
+        checkConvergence();
+    }
+
+    public static void report(Logging logger) {
+        if (enabled) {
+            logger.logln("Confidence termination: " + result);
+        }
+    }
+
+    private static void mergeBatches() {
+        for (int i = 0; i < MAX_BATCHES / 2; i++) {
+            batchEntries[i] = batchEntries[2 * i] + batchEntries[2 * i + 1];
+            batchLatency[i] = batchLatency[2 * i] + batchLatency[2 * i + 1];
+        }
+        batches = MAX_BATCHES / 2;
+        batchSize *= 2;
+    }
+
+    private static void checkConvergence() {
+        if (batches < minBatches) {
+            return;
+        }
+
+        // throughput: entries per round of each batch
+        double[] throughput = new double[batches];
+        // latency: mean latency of the entries of each batch, batches without entries give no sample
+        double[] latency = new double[batches];
+        int latencySamples = 0;
+
+        for (int i = 0; i < batches; i++) {
+            throughput[i] = (double) batchEntries[i] / batchSize;
+            if (batchEntries[i] > 0) {
+                latency[latencySamples++] = (double) batchLatency[i] / batchEntries[i];
+            }
+        }
+
+        if (latencySamples < minBatches) {
+            return;
+        }
+
+        double[] throughputInterval = interval(throughput, batches);
+        double[] latencyInterval = interval(latency, latencySamples);
+
+        if (narrowEnough(throughputInterval) && narrowEnough(latencyInterval)) {
+            converged = true;
+            result = String.format("reached at round %d with %d batches of %d rounds: "
+                            + "latency %.3f +- %.3f, throughput %.4f +- %.4f entries/round",
+                    (long) Global.getCurrentTime(), batches, batchSize, latencyInterval[0], latencyInterval[1],
+                    throughputInterval[0], throughputInterval[1]);
+            logger.logln("Confidence termination " + result);
+        }
+    }
+
+    // mean and confidence interval half width of the first count samples
+    private static double[] interval(double[] samples, int count) {
+        double mean = 0;
+        for (int i = 0; i < count; i++) {
+            mean += samples[i];
+        }
+        mean /= count;
+
+        double variance = 0;
+        for (int i = 0; i < count; i++) {
+            variance += (samples[i] - mean) * (samples[i] - mean);
+        }
+        variance /= count - 1;
+
+        return new double[]{mean, studentQuantile((1 + confidence) / 2, count - 1) * Math.sqrt(variance / count)};
+    }
+
+    private static boolean narrowEnough(double[] interval) {
+        return interval[0] != 0 && interval[1] <= relativeWidth * Math.abs(interval[0]);
+    }
+
+    // Cornish-Fisher expansion of the Student t quantile around the normal one
+    private static double studentQuantile(double p, int degrees) {
+        double z = normalQuantile(p);
+        double z3 = z * z * z;
+        double z5 = z3 * z * z;
+        return z + (z3 + z) / (4.0 * degrees) + (5 * z5 + 16 * z3 + 3 * z) / (96.0 * degrees * degrees);
+    }
+
+    // Abramowitz and Stegun 26.2.23, absolute error below 4.5e-4
+    private static double normalQuantile(double p) {
+        double q = p < 0.5 ? p : 1 - p;
+        double t = Math.sqrt(-2 * Math.log(q));
+        double z = t - (2.515517 + 0.802853 * t + 0.010328 * t * t)
+                / (1 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t);
+        return p < 0.5 ? -z : z;
+    }
+}
@@ -0,0 +1,227 @@
+package projects.sanders.metrics;
+
+import projects.sanders.priority.PriorityClasses;
+import sinalgo.tools.logging.Logging;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Global counters collected while the simulation runs. All values are reset in
+ * <code>CustomGlobal.preRun</code> and reported in <code>CustomGlobal.onExit</code>.
+ */
+public class ProtocolStatistics {
+    private static long requests;
+    private static long entries;
+    private static long totalEntryLatency;
+    private static long maxEntryLatency;
+
+    // entry latency histogram of each priority class, in rounds; the last bucket holds the longer ones
+    private static final int LATENCY_BUCKETS = 4096;
+    private static long[][] classLatency = new long[1][LATENCY_BUCKETS];
+
+    private static long messagesLost;
+    private static long messagesDuplicated;
+    private static long messagesDroppedByCrash;
+    private static long retransmissions;
+    private static long reclaimedVotes;
+    private static long substitutions;
+
+    private static long crashes;
+    private static long recoveries;
+    private static long nodeRounds;
+    private static long crashedNodeRounds;
+
+    public static void reset() {
+        requests = 0;
+        entries = 0;
+        totalEntryLatency = 0;
+        maxEntryLatency = 0;
+        classLatency = new long[PriorityClasses.count()][LATENCY_BUCKETS];
+        messagesLost = 0;
+        messagesDuplicated = 0;
+        messagesDroppedByCrash = 0;
+        retransmissions = 0;
+        reclaimedVotes = 0;
+        substitutions = 0;
+        crashes = 0;
+        recoveries = 0;
+        nodeRounds = 0;
+        crashedNodeRounds = 0;
+    }
+
+    public static void requestIssued() {
+        requests++;
+    }
+
+    public static void entered(long latency, int priorityClass) {
+        entries++;
+        totalEntryLatency += latency;
+        maxEntryLatency = Math.max(maxEntryLatency, latency);
+        classLatency[priorityClass][(int) Math.min(Math.max(latency, 0), LATENCY_BUCKETS - 1)]++;
+    }
+
+    public static long classEntries(int priorityClass) {
+        long count = 0;
+        for (long c : classLatency[priorityClass]) {
+            count += c;
+        }
+        return count;
+    }
+
+    /**
+     * Entry latency of the class below which a fraction <code>p</code> of its
+     * entries are, in rounds.
+     */
+    public static long classLatencyPercentile(int priorityClass, double p) {
+        long[] histogram = classLatency[priorityClass];
+        long target = (long) Math.ceil(p * classEntries(priorityClass));
+        long seen = 0;
+        for (int latency = 0; latency < LATENCY_BUCKETS; latency++) {
+            seen += histogram[latency];
+            if (seen >= target && seen > 0) {
+                return latency;
+            }
+        }
+        return 0;
+    }
+
+    public static void messageLost() {
+        messagesLost++;
+    }
+
+    public static void messageDuplicated() {
+        messagesDuplicated++;
+    }
+
+    public static void messageDroppedByCrash() {
+        messagesDroppedByCrash++;
+    }
+
+    public static void retransmission() {
+        retransmissions++;
+    }
+
+    public static void voteReclaimed() {
+        reclaimedVotes++;
+    }
+
+    public static void substitution() {
+        substitutions++;
+    }
+
+    public static void crash() {
+        crashes++;
+    }
+
+    public static void recovery() {
+        recoveries++;
+    }
+
+    public static void round(long nodes, long crashedNodes) {
+        nodeRounds += nodes;
+        crashedNodeRounds += crashedNodes;
+    }
+
+    public static long getRequests() {
+        return requests;
+    }
+
+    public static long getEntries() {
+        return entries;
+    }
+
+    public static long getTotalEntryLatency() {
+        return totalEntryLatency;
+    }
+
+    public static double meanEntryLatency() {
+        return entries == 0 ? 0.0 : (double) totalEntryLatency / entries;
+    }
+
+    // fraction of the issued requests that were granted
+    public static double requestAvailability() {
+        return requests == 0 ? 1.0 : (double) entries / requests;
+    }
+
+    // fraction of node rounds in which the node was up
+    public static double nodeAvailability() {
+        return nodeRounds == 0 ? 1.0 : 1.0 - (double) crashedNodeRounds / nodeRounds;
+    }
+
+    public static void writeState(DataOutputStream out) throws IOException {
+        long[] values = {requests, entries, totalEntryLatency, maxEntryLatency, messagesLost, messagesDuplicated,
+                messagesDroppedByCrash, retransmissions, reclaimedVotes, substitutions, crashes, recoveries,
+                nodeRounds, crashedNodeRounds};
+        out.writeInt(values.length);
+        for (long v : values) {
+            out.writeLong(v);
+        }
+
+        // sparse: only the buckets in use
+        out.writeInt(classLatency.length);
+        for (long[] histogram : classLatency) {
+            int used = 0;
+            for (long c : histogram) {
+                used += c != 0 ? 1 : 0;
+            }
+            out.writeInt(used);
+            for (int latency = 0; latency < histogram.length; latency++) {
+                if (histogram[latency] != 0) {
+                    out.writeShort(latency);
+                    out.writeLong(histogram[latency]);
+                }
+            }
+        }
+    }
+
+    public static void readState(DataInputStream in) throws IOException {
+        long[] values = new long[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readLong();
+        }
+
+        requests = values[0];
+        entries = values[1];
+        totalEntryLatency = values[2];
+        maxEntryLatency = values[3];
+        messagesLost = values[4];
+        messagesDuplicated = values[5];
+        messagesDroppedByCrash = values[6];
+        retransmissions = values[7];
+        reclaimedVotes = values[8];
+        substitutions = values[9];
+        crashes = values[10];
+        recoveries = values[11];
+        nodeRounds = values[12];
+        crashedNodeRounds = values[13];
+
+        int classes = in.readInt();
+        classLatency = new long[Math.max(classes, PriorityClasses.count())][LATENCY_BUCKETS];
+        for (int c = 0; c < classes; c++) {
+            for (int i = in.readInt(); i > 0; i--) {
+                classLatency[c][in.readShort()] = in.readLong();
+            }
+        }
+    }
+
+    public static void report(Logging logger) {
+        logger.logln("Requests: " + requests + " Entries: " + entries);
+        logger.logln("Request availability: " + requestAvailability());
+        logger.logln("Node availability: " + nodeAvailability());
+        logger.logln("Entry latency (rounds) mean: " + meanEntryLatency() + " max: " + maxEntryLatency);
+        if (classLatency.length > 1) {
+            for (int c = 0; c < classLatency.length; c++) {
+                logger.logln("Class " + c + " entries: " + classEntries(c) + " latency p50: "
+                        + classLatencyPercentile(c, 0.5) + " p95: " + classLatencyPercentile(c, 0.95)
+                        + " p99: " + classLatencyPercentile(c, 0.99));
+            }
+        }
+        logger.logln("Messages lost: " + messagesLost + " duplicated: " + messagesDuplicated
+                + " dropped by crashed nodes: " + messagesDroppedByCrash);
+        logger.logln("Retransmissions: " + retransmissions + " reclaimed votes: " + reclaimedVotes
+                + " substitutions: " + substitutions);
+        logger.logln("Crashes: " + crashes + " recoveries: " + recoveries);
+    }
+}
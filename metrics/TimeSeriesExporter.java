@@ -0,0 +1,196 @@
+package projects.sanders.metrics;
+
+import projects.sanders.nodes.messages.MessageTypes;
+import projects.sanders.nodes.nodeImplementations.SandersNode;
+import sinalgo.configuration.Configuration;
+import sinalgo.exception.CorruptConfigurationEntryException;
+import sinalgo.exception.SinalgoFatalException;
+import sinalgo.nodes.Node;
+import sinalgo.nodes.messages.Message;
+import sinalgo.runtime.Global;
+import sinalgo.tools.Tools;
+import sinalgo.tools.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Writes the state of the run to <code>TimeSeries/File</code> every
+ * <code>TimeSeries/Interval</code> rounds while it runs, one line per sample,
+ * as CSV or JSON lines (<code>TimeSeries/Format</code>).
+ * <p>
+ * A sample holds the messages of each type sent since the previous sample,
+ * and, at the sample round, the total size of the deferred queues, the
+ * waiting, in critical session and crashed nodes and the relinquishes done so
+ * far. Messages are counted as they are sent and the nodes are only looked at
+ * on sample rounds. Nothing is kept between samples but the counters and the
+ * writer buffer, so memory does not grow with the length of the run. The
+ * file is flushed after every sample, so it can be followed while the run
+ * goes on and a crash loses at most the sample being written.
+ */
+public class TimeSeriesExporter {
+    private static final byte[] TYPES = {MessageTypes.REQUEST, MessageTypes.YES, MessageTypes.INQ,
+            MessageTypes.RELINQUISH, MessageTypes.RELEASE};
+
+    private enum Format { CSV, JSON }
+
+    private static boolean loaded;
+    private static boolean enabled;
+    private static Format format = Format.CSV;
+    private static String file = "logs/timeseries.csv";
+    private static long interval = 10;
+
+    private static Writer out;
+    // messages sent since the last sample, by type
+    private static final long[] sent = new long[MessageTypes.RELEASE + 1];
+    private static final StringBuilder line = new StringBuilder();
+
+    private static Logging logger = Logging.getLogger("logfile.txt");
+
+    public static void reset() {
+        close();
+        load();
+
+        for (int i = 0; i < sent.length; i++) {
+            sent[i] = 0;
+        }
+
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            File f = new File(file);
+            if (f.getParentFile() != null) {
+                f.getParentFile().mkdirs();
+            }
+            out = Files.newBufferedWriter(f.toPath(), StandardCharsets.UTF_8);
+            if (format == Format.CSV) {
+                writeHeader();
+            }
+        } catch (IOException e) {
+            throw new SinalgoFatalException("Could not open time series " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        try {
+            if (Configuration.hasParameter("TimeSeries/Enabled")) {
+                enabled = Configuration.getBooleanParameter("TimeSeries/Enabled");
+            }
+            if (Configuration.hasParameter("TimeSeries/Format")) {
+                String value = Configuration.getStringParameter("TimeSeries/Format");
+                if (value.equalsIgnoreCase("csv")) {
+                    format = Format.CSV;
+                } else if (value.equalsIgnoreCase("json")) {
+                    format = Format.JSON;
+                } else {
+                    throw new SinalgoFatalException("TimeSeries/Format must be csv or json, not '" + value + "'");
+                }
+            }
+            if (Configuration.hasParameter("TimeSeries/File")) {
+                file = Configuration.getStringParameter("TimeSeries/File");
+            }
+            if (Configuration.hasParameter("TimeSeries/Interval")) {
+                interval = Math.max(1, Configuration.getIntegerParameter("TimeSeries/Interval"));
+            }
+        } catch (CorruptConfigurationEntryException e) {
+            throw new SinalgoFatalException("Invalid TimeSeries entry in Config.xml: " + e.getMessage());
+        }
+    }
+
+    public static void messageSent(Message msg) {
+        if (out != null) {
+            sent[MessageTypes.typeOf(msg)]++;
+        }
+    }
+
+    public static void postRound() {
+        long round = (long) Global.getCurrentTime();
+        if (out == null || round % interval != 0) {
+            return;
+        }
+
+        long deferred = 0;
+        long waiting = 0;
+        long holders = 0;
+        long crashed = 0;
+        long relinquishes = 0;
+        for (Node n : Tools.getNodeList()) {
+            if (!(n instanceof SandersNode)) {
+                continue;
+            }
+            SandersNode node = (SandersNode) n;
+            deferred += node.getDeferredQ().size();
+            relinquishes += node.getRelinquishCounter();
+            if (node.isCrashed()) {
+                crashed++;
+            } else if (node.isInCs()) {
+                holders++;
+            } else if (node.isWaitingCS()) {
+                waiting++;
+            }
+        }
+
+        line.setLength(0);
+        if (format == Format.CSV) {
+            line.append(round);
+            for (byte type : TYPES) {
+                line.append(',').append(sent[type]);
+            }
+            line.append(',').append(deferred).append(',').append(waiting).append(',').append(holders)
+                    .append(',').append(crashed).append(',').append(relinquishes);
+        } else {
+            line.append("{\"round\":").append(round);
+            for (byte type : TYPES) {
+                line.append(",\"").append(MessageTypes.nameOf(type)).append("\":").append(sent[type]);
+            }
+            line.append(",\"deferred\":").append(deferred).append(",\"waiting\":").append(waiting)
+                    .append(",\"holders\":").append(holders).append(",\"crashed\":").append(crashed)
+                    .append(",\"relinquishes\":").append(relinquishes).append('}');
+        }
+        line.append('\n');
+
+        for (byte type : TYPES) {
+            sent[type] = 0;
+        }
+
+        try {
+            out.append(line);
+            out.flush();
+        } catch (IOException e) {
+            logger.logln("Could not write time series, stopping it: " + e.getMessage());
+            close();
+        }
+    }
+
+    public static void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.logln("Could not close time series: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    private static void writeHeader() throws IOException {
+        line.setLength(0);
+        line.append("round");
+        for (byte type : TYPES) {
+            line.append(',').append(MessageTypes.nameOf(type));
+        }
+        line.append(",deferred,waiting,holders,crashed,relinquishes\n");
+        out.append(line);
+    }
+}
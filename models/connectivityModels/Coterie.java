@@ -1,15 +1,24 @@
 package projects.sanders.models.connectivityModels;
 
+import projects.sanders.nodeCollection.CoterieNodeCollection;
 import sinalgo.exception.CorruptConfigurationEntryException;
-import sinalgo.models.ConnectivityModelHelper;
+import sinalgo.models.ConnectivityModel;
+import sinalgo.nodes.Connections;
 import sinalgo.nodes.Node;
 import sinalgo.runtime.SinalgoRuntime;
+import sinalgo.runtime.nodeCollection.NodeCollectionInterface;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.function.Predicate;
 
-public class Coterie extends ConnectivityModelHelper {
+public class Coterie extends ConnectivityModel {
     private static boolean initialized;
 
+    // layout of the stamps below, and stamp of the coterie each node was last connected to, by ID
+    private static CoterieLayout connectedLayout;
+    private static long[] connectedStamp = new long[64];
+
     public Coterie() throws CorruptConfigurationEntryException {
         if(!initialized) {
             initialized = true;
@@ -20,29 +29,106 @@ public class Coterie extends ConnectivityModelHelper {
     //  n1 ------ n2
     //  |         |
     //  n3 ------ n4
-    // we can use node id and matrix size to get each node position
+    // node positions come from CoterieLayout, which keeps them stable when
+    // nodes join or leave
+    //
+    // the framework asks for the connections of every node in every update,
+    // but a coterie only changes when its row, its column or the width of the
+    // matrix does: a node whose coterie stamp did not move keeps its edges
+    // without looking at any candidate
     @Override
-    protected boolean isConnected(Node from, Node to) {
-        HashMap<String,Integer> from_position = nodePosition(from);
-        HashMap<String,Integer> to_position = nodePosition(to);
+    public boolean updateConnections(Node n) {
+        CoterieLayout layout = CoterieLayout.get();
+        layout.join(n);
+
+        if (connectedLayout != layout) {
+            connectedLayout = layout;
+            Arrays.fill(connectedStamp, 0);
+        }
+        int id = (int) n.getID();
+        if (id >= connectedStamp.length) {
+            connectedStamp = Arrays.copyOf(connectedStamp, Math.max(id + 1, connectedStamp.length * 2));
+        }
+
+        long stamp = layout.stamp(n);
+        if (stamp == connectedStamp[id]) {
+            return false;
+        }
+        connectedStamp[id] = stamp;
+
+        // the coterie collection only offers the coterie, other collections offer anyone
+        NodeCollectionInterface nodes = SinalgoRuntime.getNodes();
+        boolean onlyCoterie = nodes instanceof CoterieNodeCollection;
+        Connections connections = n.getOutgoingConnections();
+        boolean added = false;
 
-        if(to_position.get("column") == from_position.get("column") || from_position.get("row") == to_position.get("row")) {
-            return true;
+        Enumeration<Node> candidates = nodes.getPossibleNeighborsEnumeration(n);
+        while (candidates.hasMoreElements()) {
+            Node candidate = candidates.nextElement();
+            if (candidate.getID() == n.getID()) {
+                continue;
+            }
+            if (!onlyCoterie) {
+                // make sure the candidate has a slot before comparing them
+                layout.join(candidate);
+                if (!layout.sameRowOrColumn(n, candidate)) {
+                    continue;
+                }
+            }
+            added = !connections.add(n, candidate, true) || added;
         }
 
-        return false;
+        boolean removed = connections.removeInvalidLinks();
+        return added || removed;
     }
 
-    private HashMap<String,Integer> nodePosition (Node n) {
-        HashMap<String,Integer> position = new HashMap<String,Integer>();
-        int nodes_quantity = SinalgoRuntime.getNodes().size();
-        int matrix_size = (int) Math.sqrt(nodes_quantity);
-        int row = (int) ((n.getID() - 1) % matrix_size);
-        int column = (int) ((n.getID() - 1) / matrix_size);
+    /**
+     * Returns true if both nodes share a row or a column of the matrix, i.e. if
+     * one belongs to the coterie of the other.
+     */
+    public static boolean sameRowOrColumn(Node a, Node b) {
+        return CoterieLayout.get().sameRowOrColumn(a, b);
+    }
+
+    /**
+     * Returns true while the node has a place in the matrix.
+     */
+    public static boolean isMember(Node n) {
+        return CoterieLayout.get().contains(n);
+    }
+
+    // when an arbiter of `requester` is dead the coterie stays intersecting if
+    // it is replaced by any live node of the line the arbiter shares with every
+    // other coterie that relied on it:
+    //  . dead arbiter in requester's row -> any live node of the arbiter's column
+    //  . dead arbiter in requester's column -> any live node of the arbiter's row
+    // returns null if the whole line is down
+    public static Node substitute(Node requester, Node deadArbiter, Predicate<Node> isAlive) {
+        CoterieLayout layout = CoterieLayout.get();
+        int width = layout.getWidth();
+        int size = layout.size();
 
-        position.put("row", row);
-        position.put("column", column);
+        if (!layout.contains(requester) || !layout.contains(deadArbiter)) {
+            return null;
+        }
+
+        if (layout.row(requester) == layout.row(deadArbiter)) {
+            int column = layout.column(deadArbiter);
+            for (int s = column * width; s < Math.min(size, (column + 1) * width); s++) {
+                Node candidate = layout.nodeAt(s);
+                if (candidate.getID() != deadArbiter.getID() && isAlive.test(candidate)) {
+                    return candidate;
+                }
+            }
+        } else {
+            for (int s = layout.row(deadArbiter); s < size; s += width) {
+                Node candidate = layout.nodeAt(s);
+                if (candidate.getID() != deadArbiter.getID() && isAlive.test(candidate)) {
+                    return candidate;
+                }
+            }
+        }
 
-        return position;
+        return null;
     }
 }
@@ -0,0 +1,278 @@
+package projects.sanders.models.connectivityModels;
+
+import sinalgo.nodes.Node;
+import sinalgo.runtime.SinalgoRuntime;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the matrix used by {@link Coterie} stable while nodes join and leave.
+ * <p>
+ * Every node owns a slot, and the slot gives its position in the matrix:
+ * <code>row = slot % width</code> and <code>column = slot / width</code>.
+ * Between two changes of the width a membership change never moves the
+ * other nodes around:
+ * <ul>
+ * <li>a joining node takes the next free slot, only its row and column get a new edge</li>
+ * <li>a leaving node is replaced by the node of the last slot, so the slots stay
+ * dense (which keeps every two coteries intersecting) and only the rows and
+ * columns of those two slots change</li>
+ * </ul>
+ * Both cases cost O(sqrt(n)) instead of recomputing the whole matrix.
+ * <p>
+ * A fixed width would let the other side of the matrix grow to n / width, so
+ * the width follows the size: it grows by one when the nodes are more than
+ * (width + 1)^2 and shrinks by one when they are fewer than (width - 1)^2,
+ * keeping every coterie below 2 sqrt(n) + 3 nodes. Slots do not change, but
+ * every row and column does, so this re-layout costs as much as building the
+ * matrix: O(n sqrt(n)) edges, and <code>neighborhoodChange</code> on every
+ * node. It happens once every 2 sqrt(n) joins or leaves, about O(n) edges
+ * per membership change amortized, and never while the size stays within
+ * the band.
+ */
+public class CoterieLayout {
+    private static CoterieLayout instance;
+
+    private int width;
+    private final ArrayList<Node> slots = new ArrayList<>();
+    private final HashMap<Long, Integer> slotOf = new HashMap<>();
+    // true once a node joined or left after the layout was created
+    private boolean changed;
+
+    // change stamps, see stamp(): a counter, the last width change and the last change of each row and column
+    private long clock;
+    private long widthStamp;
+    private long[] rowStamp = new long[16];
+    private long[] columnStamp = new long[16];
+
+    private CoterieLayout(int width) {
+        this.width = Math.max(1, width);
+    }
+
+    /**
+     * Returns the layout, creating it from the nodes of the simulation on first
+     * use. Initial nodes are placed by ID, so node n goes to slot n - 1.
+     */
+    public static CoterieLayout get() {
+        if (instance == null) {
+            List<Node> nodes = new ArrayList<>();
+            for (Node n : SinalgoRuntime.getNodes()) {
+                nodes.add(n);
+            }
+            nodes.sort((a, b) -> Long.compare(a.getID(), b.getID()));
+
+            instance = new CoterieLayout((int) Math.sqrt(nodes.size()));
+            for (Node n : nodes) {
+                instance.join(n);
+            }
+            instance.changed = false;
+        }
+
+        return instance;
+    }
+
+    public static void reset() {
+        instance = null;
+    }
+
+    public static void writeState(DataOutputStream out) throws IOException {
+        CoterieLayout layout = get();
+        out.writeInt(layout.width);
+        out.writeInt(layout.slots.size());
+        for (Node n : layout.slots) {
+            out.writeLong(n.getID());
+        }
+    }
+
+    public static void readState(DataInputStream in, Map<Long, Node> nodes) throws IOException {
+        instance = new CoterieLayout(in.readInt());
+        for (int i = in.readInt(); i > 0; i--) {
+            instance.join(nodes.get(in.readLong()));
+        }
+        instance.changed = true;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    public boolean isChanged() {
+        return changed;
+    }
+
+    public boolean contains(Node n) {
+        return slotOf.containsKey(n.getID());
+    }
+
+    public Node nodeAt(int slot) {
+        return slots.get(slot);
+    }
+
+    public int row(Node n) {
+        return slot(n) % width;
+    }
+
+    public int column(Node n) {
+        return slot(n) / width;
+    }
+
+    public boolean sameRowOrColumn(Node a, Node b) {
+        Integer slotA = slotOf.get(a.getID());
+        Integer slotB = slotOf.get(b.getID());
+
+        if (slotA == null || slotB == null) {
+            return false;
+        }
+
+        return slotA % width == slotB % width || slotA / width == slotB / width;
+    }
+
+    // nodes are added lazily, so the framework can create them in any way
+    private int slot(Node n) {
+        Integer slot = slotOf.get(n.getID());
+        return slot != null ? slot : join(n);
+    }
+
+    /**
+     * Places a node at the end of the matrix and returns its slot. The width
+     * may grow, see the class comment.
+     */
+    public int join(Node n) {
+        Integer existing = slotOf.get(n.getID());
+        if (existing != null) {
+            return existing;
+        }
+
+        int slot = slots.size();
+        slots.add(n);
+        slotOf.put(n.getID(), slot);
+        changed = true;
+        touch(slot);
+
+        if (slots.size() > (width + 1) * (width + 1)) {
+            width++;
+            widthStamp = ++clock;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Removes a node, moving the node of the last slot into its place.
+     *
+     * @return the node that changed position, or null if none did; when the
+     * width changes every node moves to another row and column
+     */
+    public Node leave(Node n) {
+        Integer slot = slotOf.remove(n.getID());
+        if (slot == null) {
+            return null;
+        }
+
+        int last = slots.size() - 1;
+        Node moved = slots.remove(last);
+        changed = true;
+        touch(slot);
+        touch(last);
+
+        if (width > 1 && slots.size() < (width - 1) * (width - 1)) {
+            width--;
+            widthStamp = ++clock;
+        }
+
+        if (slot == last) {
+            return null;
+        }
+
+        slots.set(slot, moved);
+        slotOf.put(moved.getID(), slot);
+
+        return moved;
+    }
+
+    /**
+     * A number that grows whenever the coterie of <code>n</code> changes: when
+     * a node joins, leaves or moves in its row or column, or when the width
+     * changes. Equal stamps mean the coterie is still the same.
+     */
+    public long stamp(Node n) {
+        int slot = slot(n);
+        int row = slot % width;
+        int column = slot / width;
+        // rows and columns that appeared with a width change have no stamp of their own yet
+        long rowChanged = row < rowStamp.length ? rowStamp[row] : 0;
+        long columnChanged = column < columnStamp.length ? columnStamp[column] : 0;
+        return Math.max(widthStamp, Math.max(rowChanged, columnChanged));
+    }
+
+    // the row and the column of the slot changed
+    private void touch(int slot) {
+        int row = slot % width;
+        int column = slot / width;
+        if (row >= rowStamp.length) {
+            rowStamp = Arrays.copyOf(rowStamp, Math.max(row + 1, rowStamp.length * 2));
+        }
+        if (column >= columnStamp.length) {
+            columnStamp = Arrays.copyOf(columnStamp, Math.max(column + 1, columnStamp.length * 2));
+        }
+
+        clock++;
+        rowStamp[row] = clock;
+        columnStamp[column] = clock;
+    }
+
+    /**
+     * Removes the nodes that are no longer part of the simulation. Only scans
+     * when the framework holds fewer nodes than the layout.
+     */
+    public void sync() {
+        if (SinalgoRuntime.getNodes().size() >= slots.size()) {
+            return;
+        }
+
+        HashMap<Long, Node> present = new HashMap<>();
+        for (Node n : SinalgoRuntime.getNodes()) {
+            present.put(n.getID(), n);
+        }
+
+        for (Node n : new ArrayList<>(slots)) {
+            if (!present.containsKey(n.getID())) {
+                leave(n);
+            }
+        }
+    }
+
+    /**
+     * Nodes sharing the row or the column of <code>n</code>, without n itself.
+     */
+    public List<Node> coterie(Node n) {
+        int slot = slot(n);
+        int row = slot % width;
+        int column = slot / width;
+        List<Node> members = new ArrayList<>();
+
+        for (int s = column * width; s < Math.min(slots.size(), (column + 1) * width); s++) {
+            if (s != slot) {
+                members.add(slots.get(s));
+            }
+        }
+        for (int s = row; s < slots.size(); s += width) {
+            if (s != slot) {
+                members.add(slots.get(s));
+            }
+        }
+
+        return members;
+    }
+}
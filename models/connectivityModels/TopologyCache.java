@@ -0,0 +1,241 @@
+package projects.sanders.models.connectivityModels;
+
+import sinalgo.configuration.Configuration;
+import sinalgo.exception.CorruptConfigurationEntryException;
+import sinalgo.exception.SinalgoFatalException;
+import sinalgo.nodes.Node;
+import sinalgo.tools.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Coterie of every node of the initial matrix, stored in a memory mapped file
+ * so that repeated runs with the same number of nodes read it instead of
+ * rebuilding it.
+ * <p>
+ * The file is <code>TopologyCache/Directory/coterie-grid-&lt;nodes&gt;-v&lt;version&gt;.bin</code>:
+ * a header (magic, version, quorum system, nodes, width), the offset of the
+ * coterie of each slot and then the node IDs of all coteries. It is only used
+ * while the layout is the initial one, node n in slot n - 1, and stops being
+ * used as soon as a node joins or leaves.
+ * <p>
+ * The file is written under a temporary name and renamed when complete, so a
+ * run that stops while writing leaves no partial cache behind. A file that
+ * still does not match the layout in size, offsets or node IDs, left by an
+ * older version or damaged, is written again.
+ */
+public class TopologyCache {
+    private static final int MAGIC = 0x534e4454; // "SNDT"
+    private static final int VERSION = 1;
+    private static final int GRID = 1;
+    private static final int HEADER_INTS = 5;
+
+    private static boolean loaded;
+    private static boolean enabled;
+    private static String directory = "cache";
+
+    // layout the mapped file belongs to, null if none
+    private static CoterieLayout cachedFor;
+    private static IntBuffer offsets;
+    private static IntBuffer members;
+
+    private static Logging logger = Logging.getLogger("logfile.txt");
+
+    public static void reset() {
+        cachedFor = null;
+        offsets = null;
+        members = null;
+
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        try {
+            if (Configuration.hasParameter("TopologyCache/Enabled")) {
+                enabled = Configuration.getBooleanParameter("TopologyCache/Enabled");
+            }
+            if (Configuration.hasParameter("TopologyCache/Directory")) {
+                directory = Configuration.getStringParameter("TopologyCache/Directory");
+            }
+        } catch (CorruptConfigurationEntryException e) {
+            throw new SinalgoFatalException("Invalid TopologyCache entry in Config.xml: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Whether the coteries of <code>layout</code> can be read from the cache,
+     * mapping (or first writing) the file on the first call for a layout.
+     */
+    public static boolean covers(CoterieLayout layout) {
+        if (!enabled || layout.isChanged()) {
+            return false;
+        }
+        if (cachedFor != layout) {
+            cachedFor = layout;
+            offsets = null;
+            members = null;
+            map(layout);
+        }
+        return members != null;
+    }
+
+    public static int coterieSize(Node n) {
+        int slot = (int) n.getID() - 1;
+        return offsets.get(slot + 1) - offsets.get(slot);
+    }
+
+    /**
+     * ID of the i-th node of the coterie of <code>n</code>.
+     */
+    public static int coterieMember(Node n, int i) {
+        return members.get(offsets.get((int) n.getID() - 1) + i);
+    }
+
+    private static void map(CoterieLayout layout) {
+        int nodes = layout.size();
+        for (int slot = 0; slot < nodes; slot++) {
+            if (layout.nodeAt(slot).getID() != slot + 1) {
+                // IDs are not 1..n, the cache would not match
+                return;
+            }
+        }
+
+        File file = new File(directory, "coterie-grid-" + nodes + "-v" + VERSION + ".bin");
+        try {
+            if (!file.exists() || !open(file, layout)) {
+                write(file, layout);
+                open(file, layout);
+            }
+        } catch (IOException e) {
+            logger.logln("Could not use topology cache " + file + ": " + e.getMessage());
+            offsets = null;
+            members = null;
+        }
+    }
+
+    private static boolean open(File file, CoterieLayout layout) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            IntBuffer all = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asIntBuffer();
+
+            if (all.limit() < HEADER_INTS || all.get(0) != MAGIC || all.get(1) != VERSION || all.get(2) != GRID
+                    || all.get(3) != layout.size() || all.get(4) != layout.getWidth()) {
+                return false;
+            }
+
+            int nodes = layout.size();
+            if (all.limit() < HEADER_INTS + nodes + 1) {
+                return false;
+            }
+            IntBuffer fileOffsets = slice(all, HEADER_INTS, nodes + 1);
+            IntBuffer fileMembers = slice(all, HEADER_INTS + nodes + 1, all.limit() - HEADER_INTS - nodes - 1);
+            if (!matches(layout, fileOffsets, fileMembers)) {
+                logger.logln("Topology cache " + file + " is damaged, writing it again");
+                return false;
+            }
+
+            offsets = fileOffsets;
+            members = fileMembers;
+            return true;
+        }
+    }
+
+    // every coterie has its size and only IDs of nodes, so lookups cannot run off the node array
+    private static boolean matches(CoterieLayout layout, IntBuffer fileOffsets, IntBuffer fileMembers) {
+        int nodes = layout.size();
+        if (fileOffsets.get(0) != 0 || fileOffsets.get(nodes) != fileMembers.limit()) {
+            return false;
+        }
+        for (int slot = 0; slot < nodes; slot++) {
+            if (fileOffsets.get(slot + 1) - fileOffsets.get(slot) != coterieSize(layout, slot)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < fileMembers.limit(); i++) {
+            int id = fileMembers.get(i);
+            if (id < 1 || id > nodes) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void write(File file, CoterieLayout layout) throws IOException {
+        int nodes = layout.size();
+        long total = 0;
+        for (int slot = 0; slot < nodes; slot++) {
+            total += coterieSize(layout, slot);
+        }
+
+        long bytes = 4L * (HEADER_INTS + nodes + 1 + total);
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("topology of " + nodes + " nodes does not fit in one mapped file");
+        }
+
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+
+        File partial = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(partial.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            IntBuffer out = buffer.asIntBuffer();
+
+            out.put(MAGIC).put(VERSION).put(GRID).put(nodes).put(layout.getWidth());
+
+            int offset = 0;
+            for (int slot = 0; slot < nodes; slot++) {
+                out.put(offset);
+                offset += coterieSize(layout, slot);
+            }
+            out.put(offset);
+
+            for (int slot = 0; slot < nodes; slot++) {
+                List<Node> coterie = layout.coterie(layout.nodeAt(slot));
+                for (Node member : coterie) {
+                    out.put((int) member.getID());
+                }
+            }
+
+            buffer.force();
+        }
+
+        try {
+            Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        logger.logln("Topology cache written to " + file);
+    }
+
+    // rows and columns of the matrix, without the node itself
+    private static int coterieSize(CoterieLayout layout, int slot) {
+        int width = layout.getWidth();
+        int nodes = layout.size();
+        int column = slot / width;
+        int row = slot % width;
+
+        int columnSize = Math.min(width, nodes - column * width);
+        int rowSize = (nodes - row + width - 1) / width;
+        return columnSize + rowSize - 2;
+    }
+
+    private static IntBuffer slice(IntBuffer all, int from, int length) {
+        IntBuffer copy = all.duplicate();
+        copy.position(from);
+        copy.limit(from + length);
+        return copy.slice();
+    }
+}
@@ -39,13 +39,14 @@ package projects.sanders.models.messageTransmissionModels;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
+import projects.sanders.SimulationRandom;
+import projects.sanders.checkpoint.InFlightMessages;
+import projects.sanders.replay.ExecutionLog;
 import sinalgo.configuration.Configuration;
 import sinalgo.exception.CorruptConfigurationEntryException;
 import sinalgo.nodes.Node;
 import sinalgo.nodes.messages.Message;
-import sinalgo.tools.statistics.Distribution;
-
-import java.util.Random;
+import sinalgo.runtime.Global;
 
 public class RandomFixDelayTime extends sinalgo.models.MessageTransmissionModel {
 
@@ -66,13 +67,18 @@ public class RandomFixDelayTime extends sinalgo.models.MessageTransmissionModel
 
     @Override
     public double timeToReach(Node startNode, Node endNode, Message msg) {
-        Random random = new Random();
+        double time;
 
-        if (random.nextDouble() <= delayProbability) {
-            return delay;
+        if (InFlightMessages.getForcedDelay() >= 0) {
+            time = InFlightMessages.getForcedDelay();
+        } else {
+            time = ExecutionLog.delay(startNode, endNode, msg,
+                    () -> SimulationRandom.nextDouble() <= delayProbability ? delay : withoutDelay);
         }
 
-        return withoutDelay;
+        InFlightMessages.sent(startNode, endNode, msg, Global.getCurrentTime() + time);
+
+        return time;
     }
 
 }
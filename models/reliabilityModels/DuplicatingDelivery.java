@@ -0,0 +1,28 @@
+package projects.sanders.models.reliabilityModels;
+
+import projects.sanders.SimulationRandom;
+import projects.sanders.faults.FaultInjector;
+import projects.sanders.replay.ExecutionLog;
+import sinalgo.nodes.messages.Packet;
+
+/**
+ * Like {@link LossyDelivery}, but every message that gets through is delivered
+ * a second time with probability <code>FaultInjection/DuplicateProbability</code>.
+ * The copy is sent at the end of the round, so it arrives after the original.
+ */
+public class DuplicatingDelivery extends LossyDelivery {
+
+    @Override
+    public boolean reachesDestination(Packet p) {
+        if (!super.reachesDestination(p)) {
+            return false;
+        }
+
+        if (ExecutionLog.decide(ExecutionLog.DUPLICATE, p.getOrigin(), p.getDestination(), p.getMessage(),
+                () -> SimulationRandom.nextDouble() < FaultInjector.getDuplicateProbability())) {
+            FaultInjector.duplicate(p.getOrigin(), p.getDestination(), p.getMessage());
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,28 @@
+package projects.sanders.models.reliabilityModels;
+
+import projects.sanders.SimulationRandom;
+import projects.sanders.checkpoint.InFlightMessages;
+import projects.sanders.faults.FaultInjector;
+import projects.sanders.metrics.ProtocolStatistics;
+import projects.sanders.replay.ExecutionLog;
+import sinalgo.models.ReliabilityModel;
+import sinalgo.nodes.messages.Packet;
+
+/**
+ * Drops every message with probability <code>FaultInjection/LossProbability</code>.
+ */
+public class LossyDelivery extends ReliabilityModel {
+
+    @Override
+    public boolean reachesDestination(Packet p) {
+        if (ExecutionLog.decide(ExecutionLog.LOSS, p.getOrigin(), p.getDestination(), p.getMessage(),
+                () -> SimulationRandom.nextDouble() < FaultInjector.getLossProbability())) {
+            ProtocolStatistics.messageLost();
+            // a lost message must not be brought back by a checkpoint
+            InFlightMessages.received(p.getMessage());
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,431 @@
+package projects.sanders.monitor;
+
+import projects.sanders.logging.ProtocolLog;
+import projects.sanders.logging.ProtocolLog.Category;
+import projects.sanders.logging.ProtocolLog.Level;
+import projects.sanders.nodes.nodeImplementations.SandersNode;
+import sinalgo.configuration.Configuration;
+import sinalgo.exception.CorruptConfigurationEntryException;
+import sinalgo.exception.SinalgoFatalException;
+import sinalgo.nodes.Node;
+import sinalgo.runtime.Global;
+import sinalgo.runtime.SinalgoRuntime;
+import sinalgo.tools.logging.Logging;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Checks the algorithm while it runs:
+ * <ul>
+ * <li>counts the nodes in critical session and stops the simulation when more
+ * than <code>Monitor/MaxHolders</code> are inside at the same time</li>
+ * <li>keeps, for every arbiter, the node holding its vote. Together with the
+ * votes each waiting node is missing this is the wait-for graph, which is
+ * searched for a cycle when a request starves</li>
+ * <li>reports requests waiting for more than <code>Monitor/StarvationRounds</code>
+ * rounds. When it is 0 or missing the limit is computed from the number of
+ * nodes, the request probability and the message delay: four times the wait
+ * of a request queued behind every other contending request, and at least
+ * 500 rounds</li>
+ * </ul>
+ * Wait-for cycles are normal in this protocol: the inquire / relinquish
+ * exchange breaks them. A cycle found from a starving request is logged as a
+ * warning and watched; the simulation only stops with a deadlock when the
+ * same cycle is still there after <code>Monitor/DeadlockRounds</code> rounds
+ * in which no inquire or relinquish message was sent or received for the
+ * arbiters of its edges. The rounds must be more than the longest message
+ * delay, so that a message in flight is seen arriving.
+ * <p>
+ * Every protocol event costs O(1): a counter, an array slot or a queue push.
+ * The graph is only walked for starving requests and watched cycles, so the
+ * monitor can stay on in large runs.
+ */
+public class ProtocolMonitor {
+    private static final long MIN_STARVATION_ROUNDS = 500;
+    // factor between the expected wait and the starvation limit
+    private static final int STARVATION_FACTOR = 4;
+
+    private static boolean enabled = true;
+    private static int maxHolders = 1;
+    // 0 computes the limit from the load, see starvationLimit
+    private static long starvationRounds = 0;
+    private static long deadlockRounds = 200;
+    // rounds a node needs to enter without contention: critical session and request, yes and release
+    private static double entryRounds = SandersNode.CRITICAL_SESSION_TIME + 3;
+    private static double requestProbability = 1;
+
+    private static int holders;
+    private static long maxHoldersSeen;
+    private static long starvedRequests;
+
+    // indexed by node ID
+    private static SandersNode[] nodes = new SandersNode[16];
+    private static long[] holderOf = new long[16];
+    private static long[] requestRound = new long[16];
+    private static boolean[] reportedStarving = new boolean[16];
+    // last round an inquire or relinquish involving the arbiter was sent or received
+    private static long[] lastInquireRound = new long[16];
+
+    // wait-for cycles seen from starving requests, until they break
+    private static final List<WatchedCycle> watched = new ArrayList<>();
+
+    private static class WatchedCycle {
+        final List<Long> nodes;
+        final long since;
+
+        WatchedCycle(List<Long> nodes, long since) {
+            this.nodes = nodes;
+            this.since = since;
+        }
+    }
+
+    // requests in the order they were issued, oldest first
+    private static final ArrayDeque<long[]> requests = new ArrayDeque<>();
+
+    public static void reset() {
+        holders = 0;
+        maxHoldersSeen = 0;
+        starvedRequests = 0;
+        requests.clear();
+        watched.clear();
+        Arrays.fill(lastInquireRound, -1);
+        Arrays.fill(holderOf, 0);
+        Arrays.fill(requestRound, -1);
+        Arrays.fill(reportedStarving, false);
+
+        try {
+            if (Configuration.hasParameter("Monitor/Enabled")) {
+                enabled = Configuration.getBooleanParameter("Monitor/Enabled");
+            }
+            if (Configuration.hasParameter("Monitor/MaxHolders")) {
+                maxHolders = Configuration.getIntegerParameter("Monitor/MaxHolders");
+            }
+            if (Configuration.hasParameter("Monitor/StarvationRounds")) {
+                starvationRounds = Math.max(0, Configuration.getIntegerParameter("Monitor/StarvationRounds"));
+            }
+            if (Configuration.hasParameter("Monitor/DeadlockRounds")) {
+                deadlockRounds = Math.max(1, Configuration.getIntegerParameter("Monitor/DeadlockRounds"));
+            }
+            if (Configuration.hasParameter("CriticalSessionProbability")) {
+                requestProbability = Configuration.getDoubleParameter("CriticalSessionProbability");
+            }
+            double delay = 0;
+            if (Configuration.hasParameter("RandomFixDelayTransmission/DelayProbability")
+                    && Configuration.hasParameter("RandomFixDelayTransmission/Delay")) {
+                delay = Configuration.getDoubleParameter("RandomFixDelayTransmission/DelayProbability")
+                        * Configuration.getDoubleParameter("RandomFixDelayTransmission/Delay");
+            }
+            entryRounds = SandersNode.CRITICAL_SESSION_TIME + 3 * (1 + delay);
+        } catch (CorruptConfigurationEntryException e) {
+            throw new SinalgoFatalException("Invalid Monitor entry in Config.xml: " + e.getMessage());
+        }
+    }
+
+    public static void register(SandersNode n) {
+        int id = index(n);
+        nodes[id] = n;
+        holderOf[id] = 0;
+        requestRound[id] = -1;
+    }
+
+    /**
+     * Rebuilds what the monitor knows about a node after it was restored from
+     * a checkpoint. Pending requests are considered issued now.
+     */
+    public static void restored(SandersNode n) {
+        if (!enabled) {
+            return;
+        }
+
+        register(n);
+        if (n.isInCs()) {
+            holders++;
+        }
+        if (n.isHasVoted()) {
+            voteGranted(n, n.getCandidate());
+        }
+        if (n.isWaitingCS()) {
+            requestIssued(n);
+        }
+    }
+
+    public static void enteredCS(SandersNode n) {
+        if (!enabled) {
+            return;
+        }
+
+        requestRound[index(n)] = -1;
+        holders++;
+        maxHoldersSeen = Math.max(maxHoldersSeen, holders);
+
+        if (holders > maxHolders) {
+            throw new SinalgoFatalException("Mutual exclusion violated at round " + (long) Global.getCurrentTime()
+                    + ": node " + n.getID() + " entered while " + (holders - 1) + " node(s) were inside "
+                    + holdersDescription());
+        }
+    }
+
+    public static void exitedCS(SandersNode n) {
+        if (enabled) {
+            holders--;
+        }
+    }
+
+    public static void requestIssued(SandersNode n) {
+        if (!enabled) {
+            return;
+        }
+
+        int id = index(n);
+        long round = (long) Global.getCurrentTime();
+        requestRound[id] = round;
+        reportedStarving[id] = false;
+        requests.addLast(new long[]{id, round});
+    }
+
+    // the node crashed or left while waiting
+    public static void requestAbandoned(SandersNode n) {
+        if (enabled) {
+            requestRound[index(n)] = -1;
+        }
+    }
+
+    public static void voteGranted(SandersNode arbiter, Node candidate) {
+        if (enabled) {
+            holderOf[index(arbiter)] = candidate.getID();
+        }
+    }
+
+    public static void voteFreed(SandersNode arbiter) {
+        if (enabled) {
+            holderOf[index(arbiter)] = 0;
+        }
+    }
+
+    /**
+     * An inquire or relinquish message about the vote of <code>arbiter</code>
+     * was sent or received.
+     */
+    public static void inquireActivity(Node arbiter) {
+        if (enabled) {
+            lastInquireRound[index(arbiter)] = (long) Global.getCurrentTime();
+        }
+    }
+
+    /**
+     * Looks at the oldest pending requests and reports the ones waiting for
+     * too long, searching the wait-for graph for a deadlock from each of them.
+     */
+    public static void postRound() {
+        if (!enabled) {
+            return;
+        }
+
+        long now = (long) Global.getCurrentTime();
+        checkWatchedCycles(now);
+        long limit = starvationLimit();
+
+        while (!requests.isEmpty()) {
+            long[] oldest = requests.peekFirst();
+            int id = (int) oldest[0];
+
+            // satisfied, abandoned or replaced by a newer request
+            if (requestRound[id] != oldest[1]) {
+                requests.pollFirst();
+                continue;
+            }
+
+            if (now - oldest[1] < limit) {
+                break;
+            }
+
+            requests.pollFirst();
+            if (!reportedStarving[id]) {
+                reportedStarving[id] = true;
+                starvedRequests++;
+                ProtocolLog.log(Category.PROTOCOL, Level.INFO,
+                        "Node " + id + " is starving: waiting since round " + oldest[1]);
+
+                List<Long> cycle = findCycle(id);
+                if (cycle != null && !isWatched(cycle)) {
+                    ProtocolLog.log(Category.PROTOCOL, Level.INFO,
+                            "Warning: wait-for cycle " + cycle + " at round " + now + ", watching it");
+                    watched.add(new WatchedCycle(cycle, now));
+                }
+            }
+        }
+    }
+
+    /**
+     * The starvation limit in rounds. With a load of <code>rho</code>
+     * requests per entry time a request waits behind about
+     * <code>1 / (1 - rho)</code> others, and behind every node once the
+     * system is saturated.
+     */
+    private static long starvationLimit() {
+        if (starvationRounds > 0) {
+            return starvationRounds;
+        }
+
+        // nodes in the simulation now, joins and leaves included
+        int n = Math.max(1, SinalgoRuntime.getNodes().size());
+        double load = n * requestProbability * entryRounds;
+        double contending = load >= 1 ? n : Math.min(n, 1 / (1 - load));
+        return Math.max(MIN_STARVATION_ROUNDS, (long) Math.ceil(STARVATION_FACTOR * contending * entryRounds));
+    }
+
+    // drops the cycles that broke, stops the simulation for one that stayed quiet for too long
+    private static void checkWatchedCycles(long now) {
+        Iterator<WatchedCycle> it = watched.iterator();
+        while (it.hasNext()) {
+            WatchedCycle cycle = it.next();
+            long quietSince = cycle.since;
+
+            for (int i = 0; i < cycle.nodes.size() && quietSince >= 0; i++) {
+                long waiting = cycle.nodes.get(i);
+                long holder = cycle.nodes.get((i + 1) % cycle.nodes.size());
+                quietSince = edgeQuietSince(waiting, holder, quietSince);
+            }
+
+            if (quietSince < 0) {
+                it.remove();
+            } else if (now - quietSince >= deadlockRounds) {
+                throw new SinalgoFatalException("Deadlock at round " + now + ": wait-for cycle " + cycle.nodes
+                        + " unchanged without inquire or relinquish since round " + quietSince);
+            }
+        }
+    }
+
+    /**
+     * The round since which the edge from <code>waiting</code> to
+     * <code>holder</code> saw no inquire or relinquish, not before
+     * <code>since</code>, or -1 if the edge is gone.
+     */
+    private static long edgeQuietSince(long waiting, long holder, long since) {
+        SandersNode n = waiting < nodes.length ? nodes[(int) waiting] : null;
+        if (n == null || !n.isWaitingCS()) {
+            return -1;
+        }
+
+        boolean found = false;
+        for (Node arbiter : n.missingVotes()) {
+            int a = (int) arbiter.getID();
+            if (a < holderOf.length && holderOf[a] == holder) {
+                found = true;
+                since = Math.max(since, lastInquireRound[a]);
+            }
+        }
+        return found ? since : -1;
+    }
+
+    private static boolean isWatched(List<Long> cycle) {
+        for (WatchedCycle w : watched) {
+            if (w.nodes.size() == cycle.size() && new HashSet<>(w.nodes).equals(new HashSet<>(cycle))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void report(Logging logger) {
+        if (enabled) {
+            logger.logln("Monitor: max holders " + maxHoldersSeen + ", starved requests " + starvedRequests
+                    + ", starvation limit " + starvationLimit() + " rounds");
+        }
+    }
+
+    // depth first search over "waits for a vote held by" edges
+    private static List<Long> findCycle(int start) {
+        HashMap<Long, Long> parent = new HashMap<>();
+        HashMap<Long, Boolean> onPath = new HashMap<>();
+        ArrayDeque<Long> stack = new ArrayDeque<>();
+        ArrayDeque<WaitEdges> iterators = new ArrayDeque<>();
+
+        stack.push((long) start);
+        iterators.push(new WaitEdges(start));
+        onPath.put((long) start, true);
+        parent.put((long) start, 0L);
+
+        while (!stack.isEmpty()) {
+            long current = stack.peek();
+            long next = iterators.peek().next();
+
+            if (next < 0) {
+                onPath.put(current, false);
+                stack.pop();
+                iterators.pop();
+            } else if (Boolean.TRUE.equals(onPath.get(next))) {
+                List<Long> cycle = new ArrayList<>();
+                for (long n = current; n != next; n = parent.get(n)) {
+                    cycle.add(0, n);
+                }
+                cycle.add(0, next);
+                return cycle;
+            } else if (!parent.containsKey(next)) {
+                parent.put(next, current);
+                onPath.put(next, true);
+                stack.push(next);
+                iterators.push(new WaitEdges((int) next));
+            }
+        }
+
+        return null;
+    }
+
+    // holders of the votes a waiting node is missing
+    private static class WaitEdges {
+        private final long waiting;
+        private final List<Node> missing;
+        private int position;
+
+        WaitEdges(int id) {
+            waiting = id;
+            SandersNode n = id < nodes.length ? nodes[id] : null;
+            missing = n != null && n.isWaitingCS() ? n.missingVotes() : new ArrayList<>();
+        }
+
+        long next() {
+            while (position < missing.size()) {
+                int arbiter = (int) missing.get(position++).getID();
+                long holder = arbiter < holderOf.length ? holderOf[arbiter] : 0;
+                if (holder != 0 && holder != waiting) {
+                    return holder;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static String holdersDescription() {
+        List<Long> inside = new ArrayList<>();
+        for (SandersNode n : nodes) {
+            if (n != null && n.isInCs()) {
+                inside.add(n.getID());
+            }
+        }
+        return inside.toString();
+    }
+
+    private static int index(Node n) {
+        int id = (int) n.getID();
+        if (id >= nodes.length) {
+            int size = Math.max(id + 1, nodes.length * 2);
+            nodes = Arrays.copyOf(nodes, size);
+            holderOf = Arrays.copyOf(holderOf, size);
+            reportedStarving = Arrays.copyOf(reportedStarving, size);
+            int oldInquire = lastInquireRound.length;
+            lastInquireRound = Arrays.copyOf(lastInquireRound, size);
+            Arrays.fill(lastInquireRound, oldInquire, size, -1);
+            int old = requestRound.length;
+            requestRound = Arrays.copyOf(requestRound, size);
+            Arrays.fill(requestRound, old, size, -1);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,219 @@
+package projects.sanders.nodeCollection;
+
+import projects.sanders.models.connectivityModels.CoterieLayout;
+import projects.sanders.models.connectivityModels.TopologyCache;
+import sinalgo.configuration.Configuration;
+import sinalgo.nodes.Node;
+import sinalgo.runtime.nodeCollection.NodeCollectionInterface;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Node collection for the {@link projects.sanders.models.connectivityModels.Coterie}
+ * connectivity model, which only looks at node IDs. The geometric collections
+ * of the framework return every node within <code>rMax</code> as a possible
+ * neighbor, that is the whole simulation with the configured radius, and the
+ * connectivity model is then asked about each of them.
+ * <p>
+ * Here nodes are stored in a flat array indexed by ID, and the possible
+ * neighbors of a node are its coterie in {@link CoterieLayout}, so connecting
+ * the network costs O(n sqrt(n)) instead of O(n^2). While the layout is the
+ * initial one the coteries are read from the {@link TopologyCache}.
+ * <p>
+ * Selected in Config.xml with
+ * <code>nodeCollection2D value="projects.sanders.nodeCollection.CoterieNodeCollection"</code>.
+ */
+public class CoterieNodeCollection extends NodeCollectionInterface {
+    // node by ID, null where no node has that ID
+    private Node[] byId = new Node[64];
+    // nodes packed at the start of the array, for iteration and random picks
+    private Node[] dense = new Node[64];
+    private int[] denseIndex = new int[64];
+    private int size;
+
+    // the framework picks random nodes on its own (GUI, mobility), so they must not draw from SimulationRandom
+    // and shift the protocol decisions of a seeded run; seeded from fixedSeed too, so picks repeat as well
+    private final Random random = new Random(Configuration.isUseFixedSeed()
+            ? Configuration.getFixedSeed() ^ 0x5DEECE66DL : System.nanoTime());
+
+    @Override
+    public void addNode(Node n) {
+        int id = (int) n.getID();
+        if (id >= byId.length) {
+            int capacity = Math.max(id + 1, byId.length * 2);
+            byId = Arrays.copyOf(byId, capacity);
+            denseIndex = Arrays.copyOf(denseIndex, capacity);
+        }
+        if (byId[id] != null) {
+            return;
+        }
+
+        if (size == dense.length) {
+            dense = Arrays.copyOf(dense, size * 2);
+        }
+
+        byId[id] = n;
+        dense[size] = n;
+        denseIndex[id] = size;
+        size++;
+    }
+
+    @Override
+    public void removeNode(Node n) {
+        int id = (int) n.getID();
+        if (id >= byId.length || byId[id] == null) {
+            return;
+        }
+
+        // the last node takes the freed place
+        int index = denseIndex[id];
+        Node last = dense[--size];
+        dense[index] = last;
+        denseIndex[(int) last.getID()] = index;
+        dense[size] = null;
+        byId[id] = null;
+    }
+
+    public Node getNode(long id) {
+        return id >= 0 && id < byId.length ? byId[(int) id] : null;
+    }
+
+    /**
+     * The coterie of the node: the nodes sharing its row or its column.
+     */
+    @Override
+    public Enumeration<Node> getPossibleNeighborsEnumeration(Node n) {
+        CoterieLayout layout = CoterieLayout.get();
+        // until the layout catches up with a removed node, the cache does not apply
+        if (size != layout.size() || !TopologyCache.covers(layout)) {
+            return Collections.enumeration(layout.coterie(n));
+        }
+
+        int count = TopologyCache.coterieSize(n);
+        return new Enumeration<Node>() {
+            private int next;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < count;
+            }
+
+            @Override
+            public Node nextElement() {
+                if (next >= count) {
+                    throw new NoSuchElementException();
+                }
+                return byId[TopologyCache.coterieMember(n, next++)];
+            }
+        };
+    }
+
+    // positions do not matter for the coterie
+    @Override
+    public void updateNodeCollection(Node n) {
+    }
+
+    @Override
+    public Node getRandomNode() {
+        if (size == 0) {
+            return null;
+        }
+        return dense[random.nextInt(size)];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<Node> iterator() {
+        return new Iterator<Node>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Node next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return dense[next++];
+            }
+        };
+    }
+
+    @Override
+    public Enumeration<Node> getNodeEnumeration() {
+        Iterator<Node> it = iterator();
+        return new Enumeration<Node>() {
+            @Override
+            public boolean hasMoreElements() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Node nextElement() {
+                return it.next();
+            }
+        };
+    }
+
+    /**
+     * Nodes by ID; they do not overlap on the grid, so the drawing order does
+     * not matter.
+     */
+    @Override
+    public Iterator<Node> getSortedNodeIterator(boolean backToFront) {
+        return new Iterator<Node>() {
+            private int id = advance(backToFront ? 0 : byId.length - 1);
+
+            private int advance(int from) {
+                int i = from;
+                while (i >= 0 && i < byId.length && byId[i] == null) {
+                    i += backToFront ? 1 : -1;
+                }
+                return i;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return id >= 0 && id < byId.length;
+            }
+
+            @Override
+            public Node next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Node n = byId[id];
+                id = advance(id + (backToFront ? 1 : -1));
+                return n;
+            }
+        };
+    }
+
+    @Override
+    public Enumeration<Node> getSortedNodeEnumeration(boolean backToFront) {
+        Iterator<Node> it = getSortedNodeIterator(backToFront);
+        return new Enumeration<Node>() {
+            @Override
+            public boolean hasMoreElements() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Node nextElement() {
+                return it.next();
+            }
+        };
+    }
+}
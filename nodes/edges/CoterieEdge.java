@@ -0,0 +1,37 @@
+package projects.sanders.nodes.edges;
+
+import projects.sanders.gui.LevelOfDetail;
+import sinalgo.gui.transformation.PositionTransformation;
+import sinalgo.nodes.edges.Edge;
+
+import java.awt.*;
+
+/**
+ * Edge between two members of a coterie. A grid of n nodes has about
+ * 2 n sqrt(n) of them, so they are only drawn when zoomed in (see
+ * {@link LevelOfDetail}) and when they cross the area being painted.
+ */
+public class CoterieEdge extends Edge {
+    @Override
+    public void draw(Graphics g, PositionTransformation pt) {
+        if (!LevelOfDetail.isDetailed(pt)) {
+            return;
+        }
+
+        Rectangle clip = g.getClipBounds();
+        if (clip != null) {
+            pt.translateToGUIPosition(getStartNode().getPosition());
+            int x1 = pt.getGuiX();
+            int y1 = pt.getGuiY();
+            pt.translateToGUIPosition(getEndNode().getPosition());
+            int x2 = pt.getGuiX();
+            int y2 = pt.getGuiY();
+
+            if (!clip.intersects(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1) + 1, Math.abs(y2 - y1) + 1)) {
+                return;
+            }
+        }
+
+        super.draw(g, pt);
+    }
+}
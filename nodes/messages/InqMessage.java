@@ -44,14 +44,16 @@ import sinalgo.nodes.messages.Message;
 @Setter
 public class InqMessage extends Message {
     public int timestamp;
+    public int grant;
 
-    public InqMessage(int ts) {
+    public InqMessage(int ts, int grant) {
         timestamp = ts;
+        this.grant = grant;
     }
 
     @Override
     public Message clone() {
-        return new InqMessage(this.timestamp);
+        return new InqMessage(this.timestamp, this.grant);
     }
 
 }
@@ -0,0 +1,143 @@
+/*
+BSD 3-Clause License
+
+Copyright (c) 2007-2013, Distributed Computing Group (DCG)
+                         ETH Zurich
+                         Switzerland
+                         dcg.ethz.ch
+              2017-2018, André Brait
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+* Neither the name of the copyright holder nor the names of its
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package projects.sanders.nodes.messages;
+
+import projects.sanders.protocol.MessageCodec;
+import sinalgo.nodes.Node;
+import sinalgo.nodes.messages.Message;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Numeric type of each protocol message, shared by every place that writes
+ * messages outside of the simulator (checkpoints, execution logs).
+ */
+public class MessageTypes {
+    public static final byte YES = 1;
+    public static final byte INQ = 2;
+    public static final byte REQUEST = 3;
+    public static final byte RELINQUISH = 4;
+    public static final byte RELEASE = 5;
+
+    public static byte typeOf(Message msg) {
+        if (msg instanceof YesMessage) {
+            return YES;
+        } else if (msg instanceof InqMessage) {
+            return INQ;
+        } else if (msg instanceof RequestMessage) {
+            return REQUEST;
+        } else if (msg instanceof RelinquishMessage) {
+            return RELINQUISH;
+        } else if (msg instanceof ReleaseMessage) {
+            return RELEASE;
+        }
+
+        throw new IllegalArgumentException("unknown message " + msg.getClass().getName());
+    }
+
+    public static int timestampOf(Message msg) {
+        if (msg instanceof YesMessage) {
+            return ((YesMessage) msg).timestamp;
+        } else if (msg instanceof InqMessage) {
+            return ((InqMessage) msg).timestamp;
+        } else if (msg instanceof RequestMessage) {
+            return ((RequestMessage) msg).timestamp;
+        } else if (msg instanceof RelinquishMessage) {
+            return ((RelinquishMessage) msg).timestamp;
+        } else if (msg instanceof ReleaseMessage) {
+            return ((ReleaseMessage) msg).timestamp;
+        }
+
+        throw new IllegalArgumentException("unknown message " + msg.getClass().getName());
+    }
+
+    // request messages carry no grant, their priority class takes its place
+    public static int grantOf(Message msg) {
+        if (msg instanceof RequestMessage) {
+            return ((RequestMessage) msg).priorityClass;
+        } else if (msg instanceof YesMessage) {
+            return ((YesMessage) msg).grant;
+        } else if (msg instanceof InqMessage) {
+            return ((InqMessage) msg).grant;
+        } else if (msg instanceof RelinquishMessage) {
+            return ((RelinquishMessage) msg).grant;
+        } else if (msg instanceof ReleaseMessage) {
+            return ((ReleaseMessage) msg).grant;
+        }
+
+        return 0;
+    }
+
+    public static Message create(byte type, int ts, int grant) {
+        switch (type) {
+            case YES:
+                return new YesMessage(ts, grant);
+            case INQ:
+                return new InqMessage(ts, grant);
+            case REQUEST:
+                return new RequestMessage(ts, grant);
+            case RELINQUISH:
+                return new RelinquishMessage(ts, grant);
+            case RELEASE:
+                return new ReleaseMessage(ts, grant);
+            default:
+                throw new IllegalArgumentException("unknown message type " + type);
+        }
+    }
+
+    // binary form, see MessageCodec; decoded frames go back through create
+    public static void encode(ByteBuffer out, Node sender, Message msg) {
+        MessageCodec.encode(out, typeOf(msg), sender.getID(), timestampOf(msg), grantOf(msg));
+    }
+
+    public static String nameOf(byte type) {
+        switch (type) {
+            case YES:
+                return "yes";
+            case INQ:
+                return "inq";
+            case REQUEST:
+                return "request";
+            case RELINQUISH:
+                return "relinquish";
+            case RELEASE:
+                return "release";
+            default:
+                return "unknown(" + type + ")";
+        }
+    }
+}
@@ -43,13 +43,17 @@ import sinalgo.nodes.messages.Message;
 @Getter
 @Setter
 public class ReleaseMessage extends Message {
+    public int timestamp;
+    public int grant;
 
-    public ReleaseMessage() {
+    public ReleaseMessage(int ts, int grant) {
+        timestamp = ts;
+        this.grant = grant;
     }
 
     @Override
     public Message clone() {
-        return new ReleaseMessage();
+        return new ReleaseMessage(this.timestamp, this.grant);
     }
 
 }
@@ -43,13 +43,17 @@ import sinalgo.nodes.messages.Message;
 @Getter
 @Setter
 public class RelinquishMessage extends Message {
+    public int timestamp;
+    public int grant;
 
-    public RelinquishMessage() {
+    public RelinquishMessage(int ts, int grant) {
+        timestamp = ts;
+        this.grant = grant;
     }
 
     @Override
     public Message clone() {
-        return new RelinquishMessage();
+        return new RelinquishMessage(this.timestamp, this.grant);
     }
 
 }
@@ -44,14 +44,21 @@ import sinalgo.nodes.messages.Message;
 @Setter
 public class RequestMessage extends Message {
     public int timestamp;
+    // see PriorityClasses, 0 is the most urgent
+    public int priorityClass;
 
     public RequestMessage(int ts) {
+        this(ts, 0);
+    }
+
+    public RequestMessage(int ts, int priorityClass) {
         timestamp= ts;
+        this.priorityClass = priorityClass;
     }
 
     @Override
     public Message clone() {
-        return new RequestMessage(this.timestamp);
+        return new RequestMessage(this.timestamp, this.priorityClass);
     }
 
 }
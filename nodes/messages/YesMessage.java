@@ -43,13 +43,17 @@ import sinalgo.nodes.messages.Message;
 @Getter
 @Setter
 public class YesMessage extends Message {
+    public int timestamp;
+    public int grant;
 
-    public YesMessage() {
+    public YesMessage(int ts, int grant) {
+        timestamp = ts;
+        this.grant = grant;
     }
 
     @Override
     public Message clone() {
-        return new YesMessage();
+        return new YesMessage(this.timestamp, this.grant);
     }
 
 }
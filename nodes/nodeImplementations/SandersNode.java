@@ -38,114 +38,225 @@ package projects.sanders.nodes.nodeImplementations;
 
 import lombok.Getter;
 import lombok.Setter;
-import projects.sanders.LogL;
-import projects.sanders.nodes.messages.*;
+import projects.sanders.SimulationRandom;
+import projects.sanders.checkpoint.InFlightMessages;
+import projects.sanders.faults.FaultInjector;
+import projects.sanders.gui.LevelOfDetail;
+import projects.sanders.gui.NodeLabel;
+import projects.sanders.logging.ProtocolLog;
+import projects.sanders.logging.ProtocolLog.Category;
+import projects.sanders.logging.ProtocolLog.Level;
+import projects.sanders.metrics.ProtocolStatistics;
+import projects.sanders.metrics.TimeSeriesExporter;
+import projects.sanders.models.connectivityModels.Coterie;
+import projects.sanders.monitor.ProtocolMonitor;
+import projects.sanders.nodes.messages.MessageTypes;
 import projects.sanders.nodes.timers.CriticalSessionTimer;
+import projects.sanders.nodes.timers.RequestTimeoutTimer;
+import projects.sanders.nodes.timers.VoteTimeoutTimer;
+import projects.sanders.priority.PriorityClasses;
+import projects.sanders.protocol.SandersStateMachine;
+import projects.sanders.replay.ExecutionLog;
 import sinalgo.configuration.Configuration;
 import sinalgo.exception.CorruptConfigurationEntryException;
 import sinalgo.exception.WrongConfigurationException;
 import sinalgo.gui.transformation.PositionTransformation;
 import sinalgo.nodes.Node;
+import sinalgo.nodes.edges.Edge;
 import sinalgo.nodes.messages.Inbox;
 import sinalgo.nodes.messages.Message;
-import sinalgo.tools.logging.Logging;
+import sinalgo.runtime.Global;
 
 import java.awt.*;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
-import java.util.Random;
 
 @Getter
 @Setter
 public class SandersNode extends Node {
     public static final double CRITICAL_SESSION_TIME = 5.0;
-    boolean inCs = false;
-    boolean waitingCS = false;
-    boolean hasVoted = false;
-    boolean inquired = false;
-    int relinquishCounter = 0;
+    boolean crashed = false;
     int currTs = 0;
-    int yesVotes = 0;
-    int myTs = 0;
-    int candidateTs;
-    Node candidate;
-    PriorityQueue<Requester> deferredQ;
 
-    Logging logger = Logging.getLogger("logfile.txt");
+    // requester and arbiter state, shared with every other runtime of the protocol
+    final SandersStateMachine<Node> protocol = new SandersStateMachine<>(new NodeHost());
+
+    // fire time of the latest timer of each kind, -1 if none; kept for checkpoints
+    double csExitAt = -1;
+    double requestTimeoutAt = -1;
+    double voteTimeoutAt = -1;
+    // a restored timer was due in the round the checkpoint resumed at
+    private boolean restoredTimerDue;
+
+    private static double criticalSessionProbability = -1;
+
+    /**
+     * Carries the messages of the nodes. The framework does, unless a test
+     * runs the rounds by itself. <code>direct</code> is set for messages that
+     * are not sent over an edge.
+     */
+    public interface Network {
+        void send(SandersNode origin, Node target, Message msg, boolean direct);
+    }
+
+    private static final Network FRAMEWORK = (origin, target, msg, direct) -> {
+        if (direct) {
+            origin.sendDirect(msg, target);
+        } else {
+            origin.send(msg, target);
+        }
+    };
+    private static Network network = FRAMEWORK;
+
+    // labels are wider than the node, keep drawing them a bit past the border
+    private static final int LABEL_MARGIN = 200;
+    private final NodeLabel label = new NodeLabel();
+
+    // the simulator side of the protocol: messages, timers, statistics and the monitor
+    private class NodeHost implements SandersStateMachine.Host<Node> {
+        @Override
+        public long idOf(Node participant) {
+            return participant.getID();
+        }
+
+        @Override
+        public void send(Node to, byte type, int timestamp, int value) {
+            sendMessage(to, type, timestamp, value);
+        }
+
+        @Override
+        public void entered() {
+            ProtocolStatistics.entered(currTs - protocol.getMyTs(), protocol.getMyClass());
+            ProtocolMonitor.enteredCS(SandersNode.this);
+
+            // trigger timer to leave critical session
+            startCriticalSessionTimer(CRITICAL_SESSION_TIME);
+        }
+
+        @Override
+        public boolean isWaiting(Node requester) {
+            return FaultInjector.isAlive(requester) && Coterie.isMember(requester);
+        }
+
+        @Override
+        public void voteGranted(Node requester) {
+            ProtocolMonitor.voteGranted(SandersNode.this, requester);
+            voteTimeoutAt = -1;
+            startVoteTimer();
+        }
+
+        @Override
+        public void voteFreed() {
+            ProtocolMonitor.voteFreed(SandersNode.this);
+        }
+    }
 
     @Override
     public void handleMessages(Inbox inbox) {
         while (inbox.hasNext()) {
             Message msg = inbox.next();
-            Node sender = inbox.getSender();
-
-            if (msg instanceof YesMessage) {
-                handleYes(sender);
-            } else if (msg instanceof InqMessage) {
-                handleInq(sender, (InqMessage) msg);
-            } else if (msg instanceof RequestMessage) {
-                handleRequest(sender, (RequestMessage) msg);
-            } else if (msg instanceof RelinquishMessage) {
-                handleRelinquish(sender);
-            } else if (msg instanceof ReleaseMessage) {
-                handleRelease(sender);
-            }
+            receive(inbox.getSender(), msg);
         }
     }
 
+    public void receive(Node sender, Message msg) {
+        InFlightMessages.received(msg);
+
+        if (crashed) {
+            ProtocolStatistics.messageDroppedByCrash();
+            return;
+        }
+
+        deliver(sender, msg);
+    }
+
     @Override
     public void preStep() {
-        printDeferredQ();
+        if (!crashed) {
+            printDeferredQ();
+
+            if (!protocol.isInCs() && tryEnterCS()) {
+                enterCS();
+            }
+        }
 
-        if (!inCs && tryEnterCS()) {
-            enterCS();
+        // right after the pre step, where the framework fires the timers it holds
+        if (restoredTimerDue) {
+            restoredTimerDue = false;
+            fireDueTimers(Global.getCurrentTime());
         }
     }
 
     @Override
     public void init() {
-        deferredQ = new PriorityQueue<>(5, new RequesterComparator());
+        ProtocolMonitor.register(this);
     }
 
+    /**
+     * Called when nodes join or leave the coterie of this node. Only the nodes
+     * of the affected rows and columns get here, so the work is proportional
+     * to the coterie size.
+     */
     @Override
     public void neighborhoodChange() {
+        if (crashed) {
+            return;
+        }
+
+        // as an arbiter, forget requesters that left the system
+        protocol.dropRequesters(r -> !Coterie.isMember(r));
+
+        // as a requester, move the pending request to the new coterie
+        if (protocol.isWaitingCS()) {
+            protocol.changeQuorum(buildQuorum());
+        }
     }
 
     @Override
     public void draw(Graphics g, PositionTransformation pt, boolean highlight) {
-        String text;
-        Color color;
-
-        if (waitingCS) {
-            color = Color.ORANGE;
-        } else if (inCs) {
-            color = Color.RED;
+        int state;
+        if (crashed) {
+            state = LevelOfDetail.CRASHED;
+        } else if (protocol.isWaitingCS()) {
+            state = LevelOfDetail.WAITING;
+        } else if (protocol.isInCs()) {
+            state = LevelOfDetail.IN_CS;
         } else {
-            color = Color.GREEN;
+            state = LevelOfDetail.IDLE;
+        }
+
+        // zoomed out: a cell of the heatmap, no text
+        if (!LevelOfDetail.isDetailed(pt)) {
+            LevelOfDetail.drawCell(g, pt, this, state);
+            return;
         }
 
-        if (inCs) {
-            text = "CS";
-            super.drawNodeAsDiskWithText(g, pt, highlight, text, 20, color);
+        pt.translateToGUIPosition(this.getPosition());
+        if (!highlight && !LevelOfDetail.onScreen(g, pt.getGuiX(), pt.getGuiY(), LABEL_MARGIN)) {
+            return;
+        }
+
+        Color color = LevelOfDetail.color(state);
+        if (protocol.isInCs()) {
+            super.drawNodeAsDiskWithText(g, pt, highlight, "CS", 20, color);
         } else {
-            text = "yV: " + yesVotes;
-            if (hasVoted) {
-                if (inquired) {
-                    text = text + " InqV [" + candidate.getID() + "]";
-                } else {
-                    text = text + " V [" + candidate.getID() + "]";
-                }
-            } else {
-                text = text + " NotV";
-            }
-            text = text + " Rq: " + relinquishCounter;
+            boolean hasVoted = protocol.isHasVoted();
+            String text = label.get(protocol.getYesVotes(), hasVoted, protocol.isInquired(),
+                    hasVoted ? protocol.getCandidate().getID() : -1, protocol.getRelinquishCounter());
             super.drawNodeAsSquareWithText(g, pt, highlight, text, 20, color);
         }
     }
 
     @Override
     public void postStep() {
-        logger.logln(LogL.debugLog, "Relinquish Counter: " + relinquishCounter);
+        if (ProtocolLog.isOn(Category.ROUND, Level.DEBUG)) {
+            ProtocolLog.log(Category.ROUND, Level.DEBUG, "Relinquish Counter: " + protocol.getRelinquishCounter());
+        }
         currTs++;
     }
 
@@ -158,198 +269,430 @@ public class SandersNode extends Node {
     public void checkRequirements() throws WrongConfigurationException {
     }
 
+    public boolean isInCs() {
+        return protocol.isInCs();
+    }
+
+    public boolean isWaitingCS() {
+        return protocol.isWaitingCS();
+    }
+
+    public boolean isHasVoted() {
+        return protocol.isHasVoted();
+    }
+
+    public Node getCandidate() {
+        return protocol.getCandidate();
+    }
+
+    public int getRelinquishCounter() {
+        return protocol.getRelinquishCounter();
+    }
+
+    public PriorityQueue<SandersStateMachine.Requester<Node>> getDeferredQ() {
+        return protocol.getDeferredQ();
+    }
+
+    /**
+     * Stops the node. Everything it was doing as a requester is lost, while its
+     * vote as an arbiter survives as if it was kept on stable storage, so that a
+     * recovered arbiter never grants a second vote.
+     */
+    public void crash() {
+        ProtocolLog.log(Category.PROTOCOL, Level.INFO, "Node " + this.getID() + " crashed");
+        crashed = true;
+        if (protocol.isInCs()) {
+            ProtocolMonitor.exitedCS(this);
+        }
+        if (protocol.isWaitingCS()) {
+            ProtocolMonitor.requestAbandoned(this);
+        }
+        protocol.dropRequest();
+    }
+
+    /**
+     * Restarts the node. Timers that fired while it was down were dropped, so
+     * they are started again: otherwise a vote granted to a node that died
+     * in the meantime would never be taken back.
+     */
+    public void recover() {
+        ProtocolLog.log(Category.PROTOCOL, Level.INFO, "Node " + this.getID() + " recovered");
+        crashed = false;
+
+        if (protocol.isHasVoted() && voteTimeoutAt < 0) {
+            startVoteTimer();
+        }
+        if (protocol.isWaitingCS() && requestTimeoutAt < 0) {
+            startRequestTimer();
+        }
+    }
+
     private boolean tryEnterCS() {
         // if already waiting for CS, not try to enter again...
-        if (waitingCS) {
+        if (protocol.isWaitingCS()) {
             return false;
         }
 
-        Random random = new Random();
-        double criticalSessionProbability = 0.0;
-
-        try {
-            criticalSessionProbability = Configuration.getDoubleParameter("CriticalSessionProbability");
-        } catch (CorruptConfigurationEntryException e) {
-            e.printStackTrace();
+        if (criticalSessionProbability < 0) {
+            try {
+                criticalSessionProbability = Configuration.getDoubleParameter("CriticalSessionProbability");
+            } catch (CorruptConfigurationEntryException e) {
+                e.printStackTrace();
+                criticalSessionProbability = 0.0;
+            }
         }
 
-        return random.nextDouble() <= criticalSessionProbability;
+        return ExecutionLog.decide(ExecutionLog.REQUEST, this, null, null,
+                () -> SimulationRandom.nextDouble() <= criticalSessionProbability);
     }
 
 
     private void enterCS() {
-        logger.logln(LogL.debugLog,"Node " + this.getID() + " trying to enter in CS");
-        waitingCS = true;
-        myTs = currTs;
-        RequestMessage requestMessage = new RequestMessage(myTs);
+        if (ProtocolLog.isOn(Category.PROTOCOL, Level.INFO)) {
+            ProtocolLog.log(Category.PROTOCOL, Level.INFO, "Node " + this.getID() + " trying to enter in CS");
+        }
+        requestTimeoutAt = -1;
+        ArrayList<Node> quorum = buildQuorum();
+        ProtocolStatistics.requestIssued();
+        ProtocolMonitor.requestIssued(this);
 
-        broadcastToCoterie(requestMessage);
+        protocol.request(currTs, PriorityClasses.classOf(this, currTs), quorum);
+
+        startRequestTimer();
     }
 
     public void exitCS() {
-        inCs = false;
-        yesVotes = 0;
-        ReleaseMessage releaseMessage = new ReleaseMessage();
-
-        broadcastToCoterie(releaseMessage);
-    }
-
-    private void broadcastToCoterie(Message msg) {
-        if (msg instanceof YesMessage) {
-            sendYes(this);
-            broadcast(msg);
-        } else if (msg instanceof InqMessage) {
-            sendInq(this, ((InqMessage) msg).timestamp);
-            broadcast(msg);
-        } else if (msg instanceof RequestMessage) {
-            sendRequest(this, ((RequestMessage) msg).timestamp);
-            broadcast(msg);
-        } else if (msg instanceof RelinquishMessage) {
-            sendRelinquish(this);
-            broadcast(msg);
-        } else if (msg instanceof ReleaseMessage) {
-            sendRelease(this);
-            broadcast(msg);
-        }
-    }
-
-    private void sendYes(Node target) {
-        if (targetEqualToSender(target, this)) {
-            handleYes(this);
-        } else {
-            send(new YesMessage(), target);
+        if (crashed || !protocol.isInCs()) {
+            return;
         }
+
+        ProtocolMonitor.exitedCS(this);
+        protocol.release();
     }
 
-    private void sendRelinquish(Node target) {
-        if (targetEqualToSender(target, this)) {
-            handleRelinquish(target);
-        } else {
-            send(new RelinquishMessage(), target);
+    // coterie = outgoing connections + node itself, with every dead arbiter
+    // replaced by a live substitute
+    private ArrayList<Node> buildQuorum() {
+        ArrayList<Node> quorum = new ArrayList<>();
+        quorum.add(this);
+
+        for (Edge e : this.getOutgoingConnections()) {
+            Node arbiter = e.getEndNode();
+
+            if (FaultInjector.isAlive(arbiter)) {
+                quorum.add(arbiter);
+            } else {
+                Node substitute = Coterie.substitute(this, arbiter, FaultInjector::isAlive);
+                if (substitute != null) {
+                    ProtocolStatistics.substitution();
+                    quorum.add(substitute);
+                }
+            }
         }
+
+        return quorum;
     }
 
-    private void sendInq(Node target, int targetTs) {
-        InqMessage inqMessage = new InqMessage(targetTs);
+    /**
+     * Arbiters of the current request whose vote this node does not hold.
+     */
+    public List<Node> missingVotes() {
+        return protocol.missingVotes();
+    }
 
-        if (targetEqualToSender(target, this)) {
-            handleInq(this, inqMessage);
-        } else {
-            send(inqMessage, target);
+    // substitutes are not connected to this node, so they are reached directly;
+    // nodes that left the system are not reachable anymore
+    private void transmit(Message msg, Node target) {
+        if (!Coterie.isMember(target)) {
+            return;
         }
+
+        TimeSeriesExporter.messageSent(msg);
+        network.send(this, target, msg, !Coterie.sameRowOrColumn(this, target));
     }
 
-    private void sendRequest(Node target, int targetTs) {
-        RequestMessage requestMessage = new RequestMessage(targetTs);
+    /**
+     * Sends again a message of a checkpoint that was still in flight.
+     */
+    public void resend(Message msg, Node target) {
+        network.send(this, target, msg, true);
+    }
 
-        if (targetEqualToSender(target, this)) {
-            handleRequest(this, requestMessage);
+    // null gives the messages back to the framework
+    public static void setNetwork(Network n) {
+        network = n != null ? n : FRAMEWORK;
+    }
+
+    // read from Config.xml on first use, unless set before
+    public static void setCriticalSessionProbability(double p) {
+        criticalSessionProbability = p;
+    }
+
+    private void sendMessage(Node target, byte type, int timestamp, int value) {
+        if (type == MessageTypes.RELINQUISH) {
+            ProtocolMonitor.inquireActivity(target);
+        } else if (type == MessageTypes.INQ) {
+            ProtocolMonitor.inquireActivity(this);
+        }
+
+        Message msg = MessageTypes.create(type, timestamp, value);
+        if (target.getID() == this.getID()) {
+            deliver(this, msg);
         } else {
-            send(requestMessage, target);
+            transmit(msg, target);
         }
     }
 
-    private void sendRelease(Node target) {
-        if (targetEqualToSender(target, this)) {
-            handleRelease(target);
-        } else {
-            send(new ReleaseMessage(), target);
+    private void deliver(Node sender, Message msg) {
+        byte type = MessageTypes.typeOf(msg);
+        if (ProtocolLog.isOn(Category.SEND, Level.DEBUG)) {
+            ProtocolLog.log(Category.SEND, Level.DEBUG, "Node " + this.getID() + " received "
+                    + MessageTypes.nameOf(type) + " message from node " + sender.getID());
+        }
+
+        if (type == MessageTypes.INQ) {
+            ProtocolMonitor.inquireActivity(sender);
+        } else if (type == MessageTypes.RELINQUISH) {
+            ProtocolMonitor.inquireActivity(this);
         }
+
+        protocol.handle(sender, type, MessageTypes.timestampOf(msg), MessageTypes.grantOf(msg));
     }
 
-    private void handleYes(Node sender) {
-        logger.logln(LogL.debugLog,"Node " + this.getID() + " received yes message from node " + sender.getID());
-        // coterieSize = outgoing connections + node itself
-        int coterieSize = this.getOutgoingConnections().size() + 1;
-        yesVotes++;
+    private void startCriticalSessionTimer(double time) {
+        CriticalSessionTimer timer = new CriticalSessionTimer(this);
+        timer.startRelative(time, this);
+        csExitAt = Global.getCurrentTime() + time;
+    }
 
-        // enter to CS if every node from coterie vote yes
-        if (yesVotes == coterieSize) {
-            inCs = true;
-            waitingCS = false;
+    private void startRequestTimer() {
+        if (FaultInjector.getRequestTimeout() > 0) {
+            startRequestTimer(FaultInjector.getRequestTimeout());
+        }
+    }
 
-            // trigger timer to leave critical session
-            CriticalSessionTimer timer = new CriticalSessionTimer(this);
-            timer.startRelative(CRITICAL_SESSION_TIME, this);
+    private void startRequestTimer(double time) {
+        RequestTimeoutTimer timer = new RequestTimeoutTimer(this, protocol.getMyTs());
+        timer.startRelative(time, this);
+        requestTimeoutAt = Global.getCurrentTime() + time;
+    }
+
+    private void startVoteTimer() {
+        if (FaultInjector.getVoteTimeout() > 0) {
+            startVoteTimer(FaultInjector.getVoteTimeout());
+        }
+    }
+
+    private void startVoteTimer(double time) {
+        VoteTimeoutTimer timer = new VoteTimeoutTimer(this, protocol.getGrantSeq());
+        timer.startRelative(time, this);
+        voteTimeoutAt = Global.getCurrentTime() + time;
+    }
+
+    /**
+     * Called when a request is still waiting for votes after
+     * <code>FaultInjection/RequestTimeout</code> rounds: dead arbiters are
+     * substituted and every missing vote is asked again.
+     */
+    public void requestTimeout(int ts) {
+        if (crashed && ts == protocol.getMyTs()) {
+            // dropped, recover starts it again
+            requestTimeoutAt = -1;
+        }
+        if (crashed || !protocol.isWaitingCS() || ts != protocol.getMyTs()) {
+            return;
+        }
+
+        for (int sent = protocol.retransmitRequest(buildQuorum()); sent > 0; sent--) {
+            ProtocolStatistics.retransmission();
+        }
+
+        if (protocol.isWaitingCS()) {
+            startRequestTimer();
         }
     }
 
-    private void handleInq(Node sender, InqMessage msg) {
-        logger.logln(LogL.debugLog,"Node " + this.getID() + " received inq message from node " + sender.getID());
+    /**
+     * Called when a granted vote was not released after
+     * <code>FaultInjection/VoteTimeout</code> rounds. The vote is taken back if
+     * the candidate is dead, otherwise the yes (and inquire) messages are sent
+     * again in case they were lost.
+     */
+    public void voteTimeout(int grant) {
+        if (crashed && grant == protocol.getGrantSeq()) {
+            // dropped, recover starts it again
+            voteTimeoutAt = -1;
+        }
+        if (crashed || !protocol.isHasVoted() || grant != protocol.getGrantSeq()) {
+            return;
+        }
 
-        if (waitingCS && myTs == msg.timestamp) {
-            sendRelinquish(sender);
-            relinquishCounter++;
-            yesVotes--;
+        if (!FaultInjector.isAlive(protocol.getCandidate())) {
+            ProtocolStatistics.voteReclaimed();
+            protocol.reclaimVote();
+            return;
         }
+
+        ProtocolStatistics.retransmission();
+        startVoteTimer();
+        protocol.retransmitVote();
     }
 
+    /**
+     * Writes the protocol state of this node to a checkpoint. Nodes are
+     * written by ID, so the checkpoint does not depend on object identity.
+     */
+    public void writeState(DataOutputStream out) throws IOException {
+        out.writeByte((protocol.isInCs() ? 1 : 0) | (protocol.isWaitingCS() ? 2 : 0) | (protocol.isHasVoted() ? 4 : 0)
+                | (protocol.isInquired() ? 8 : 0) | (crashed ? 16 : 0));
+        out.writeInt(protocol.getRelinquishCounter());
+        out.writeInt(currTs);
+        out.writeInt(protocol.getMyTs());
+        out.writeInt(protocol.getMyClass());
+        out.writeInt(protocol.getCandidateTs());
+        out.writeInt(protocol.getCandidateClass());
+        out.writeInt(protocol.getGrantSeq());
+        out.writeLong(protocol.getCandidate() != null ? protocol.getCandidate().getID() : 0);
+
+        out.writeInt(protocol.getDeferredQ().size());
+        for (SandersStateMachine.Requester<Node> r : protocol.getDeferredQ()) {
+            out.writeLong(r.id);
+            out.writeInt(r.timestamp);
+            out.writeInt(r.priorityClass);
+        }
 
-    private void handleRequest(Node sender, RequestMessage msg) {
-        logger.logln(LogL.debugLog,"Node " + this.getID() + " received request message from node " + sender.getID());
+        out.writeInt(protocol.getQuorum().size());
+        for (Node n : protocol.getQuorum()) {
+            out.writeLong(n.getID());
+        }
 
-        int senderTs = msg.timestamp;
+        out.writeInt(protocol.getHeldVotes().size());
+        for (SandersStateMachine.Vote<Node> vote : protocol.getHeldVotes()) {
+            out.writeLong(vote.arbiter.getID());
+            out.writeInt(vote.grant);
+        }
 
-        if (!hasVoted) {
-            // send vote to sender
-            sendYes(sender);
-            candidate = sender;
-            candidateTs = senderTs;
-            hasVoted = true;
-        } else {
-            // add sender to deferred queue
-            deferredQ.add(new Requester(sender, senderTs));
+        writeGrants(out, protocol.getLastGrant());
+        writeGrants(out, protocol.getPendingInq());
 
-            if ((senderTs < candidateTs || (senderTs == candidateTs && sender.getID() < candidate.getID())) && !inquired) {
-                // request vote annulment
-                inquired = true;
-                sendInq(candidate, candidateTs);
-            }
+        out.writeDouble(csExitAt);
+        out.writeDouble(requestTimeoutAt);
+        out.writeDouble(voteTimeoutAt);
+    }
+
+    private void writeGrants(DataOutputStream out, Map<Long, Integer> grants) throws IOException {
+        out.writeInt(grants.size());
+        for (Map.Entry<Long, Integer> e : grants.entrySet()) {
+            out.writeLong(e.getKey());
+            out.writeInt(e.getValue());
         }
     }
 
-    private void handleRelinquish(Node sender) {
-        logger.logln(LogL.debugLog,"Node " + this.getID() + " received relinquish message from node " + sender.getID());
+    /**
+     * Reads the state written by {@link #writeState}. Timers are not started
+     * here, see {@link #restartTimers}.
+     */
+    public void readState(DataInputStream in, Map<Long, Node> nodes) throws IOException {
+        int flags = in.readByte();
+        crashed = (flags & 16) != 0;
+        protocol.setRelinquishCounter(in.readInt());
+        currTs = in.readInt();
+        int myTs = in.readInt();
+        int myClass = in.readInt();
+        int candidateTs = in.readInt();
+        int candidateClass = in.readInt();
+        int grantSeq = in.readInt();
+        Node candidate = nodes.get(in.readLong());
+
+        List<SandersStateMachine.Requester<Node>> deferred = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            Node requester = nodes.get(in.readLong());
+            deferred.add(new SandersStateMachine.Requester<>(requester, requester.getID(), in.readInt(), in.readInt()));
+        }
+        protocol.restoreVote((flags & 4) != 0, (flags & 8) != 0, candidate, candidateTs, candidateClass, grantSeq,
+                deferred);
+
+        List<Node> quorum = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            quorum.add(nodes.get(in.readLong()));
+        }
+
+        List<SandersStateMachine.Vote<Node>> held = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            Node arbiter = nodes.get(in.readLong());
+            held.add(new SandersStateMachine.Vote<>(arbiter, in.readInt()));
+        }
+        protocol.restoreRequest((flags & 2) != 0, (flags & 1) != 0, myTs, myClass, quorum, held);
 
-        // add candidate to deferred queue
-        deferredQ.add(new Requester(candidate, candidateTs));
+        readGrants(in, protocol.getLastGrant());
+        readGrants(in, protocol.getPendingInq());
 
-        // get first requester from deferred queue and use as candidate
-        Requester requester = deferredQ.poll();
-        sendYes(requester.node);
-        candidate = requester.node;
-        candidateTs = requester.timestamp;
-        inquired = false;
+        csExitAt = in.readDouble();
+        requestTimeoutAt = in.readDouble();
+        voteTimeoutAt = in.readDouble();
     }
 
-    private void handleRelease(Node sender) {
-        logger.logln(LogL.debugLog,"Node " + this.getID() + " received release message from node " + sender.getID());
+    private void readGrants(DataInputStream in, Map<Long, Integer> grants) throws IOException {
+        grants.clear();
+        for (int i = in.readInt(); i > 0; i--) {
+            long id = in.readLong();
+            grants.put(id, in.readInt());
+        }
+    }
 
-        if (!deferredQ.isEmpty()) {
-            // get first requester from deferred queue and use as candidate
-            Requester nextRequester = deferredQ.poll();
-            sendYes(nextRequester.node);
-            candidate = nextRequester.node;
-            candidateTs = nextRequester.timestamp;
-        } else {
-            hasVoted = false;
+    /**
+     * Starts again the timers that were pending when the checkpoint was taken.
+     * Timers that are due in the current round fire in the next step of the
+     * node, as they would have without the checkpoint.
+     */
+    public void restartTimers(double now) {
+        if (protocol.isInCs() && csExitAt >= 0) {
+            if (csExitAt > now) {
+                startCriticalSessionTimer(csExitAt - now);
+            } else {
+                restoredTimerDue = true;
+            }
+        }
+        if (protocol.isWaitingCS() && requestTimeoutAt >= 0) {
+            if (requestTimeoutAt > now) {
+                startRequestTimer(requestTimeoutAt - now);
+            } else {
+                restoredTimerDue = true;
+            }
+        }
+        if (protocol.isHasVoted() && voteTimeoutAt >= 0) {
+            if (voteTimeoutAt > now) {
+                startVoteTimer(voteTimeoutAt - now);
+            } else {
+                restoredTimerDue = true;
+            }
         }
+    }
 
-        inquired = false;
+    private void fireDueTimers(double now) {
+        if (protocol.isInCs() && csExitAt >= 0 && csExitAt <= now) {
+            exitCS();
+        }
+        if (protocol.isWaitingCS() && requestTimeoutAt >= 0 && requestTimeoutAt <= now) {
+            requestTimeout(protocol.getMyTs());
+        }
+        if (protocol.isHasVoted() && voteTimeoutAt >= 0 && voteTimeoutAt <= now) {
+            voteTimeout(protocol.getGrantSeq());
+        }
     }
 
     private void printDeferredQ() {
-        PriorityQueue<Requester> PQCopy = new PriorityQueue<>(deferredQ);
+        if (!ProtocolLog.isOn(Category.ROUND, Level.DEBUG)) {
+            return;
+        }
+
+        PriorityQueue<SandersStateMachine.Requester<Node>> PQCopy = new PriorityQueue<>(protocol.getDeferredQ());
         ArrayList<Long> queueToPrint = new ArrayList<>();
 
         while (!PQCopy.isEmpty()) {
-            queueToPrint.add(PQCopy.poll().node.getID());
+            queueToPrint.add(PQCopy.poll().id);
         }
 
-        logger.logln(LogL.debugLog,"Node " + this.getID() + " deferredQ: " + queueToPrint);
-    }
-
-    private boolean targetEqualToSender(Node target, Node sender) {
-        return target.getID() == sender.getID();
+        ProtocolLog.log(Category.ROUND, Level.DEBUG, "Node " + this.getID() + " deferredQ: " + queueToPrint);
     }
 }
@@ -34,23 +34,22 @@ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
 OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
 OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
-package projects.sanders.nodes.messages;
+package projects.sanders.nodes.timers;
 
-import java.util.Comparator;
+import projects.sanders.nodes.nodeImplementations.SandersNode;
+import sinalgo.nodes.timers.Timer;
+
+public class RequestTimeoutTimer extends Timer {
+    private SandersNode node;
+    private int timestamp;
+
+    public RequestTimeoutTimer(SandersNode n, int ts) {
+        this.node = n;
+        this.timestamp = ts;
+    }
 
-public class RequesterComparator implements Comparator<Requester> {
     @Override
-    public int compare(Requester o1, Requester o2) {
-        if (o1.timestamp < o2.timestamp) {
-            return -1;
-        } else if (o1.timestamp > o2.timestamp) {
-            return 1;
-        } else if (o1.node.getID() < o2.node.getID()) {
-            return -1;
-        } else if (o1.node.getID() > o2.node.getID()) {
-            return 1;
-        }
-
-        return 0;
+    public void fire() {
+        this.node.requestTimeout(timestamp);
     }
 }
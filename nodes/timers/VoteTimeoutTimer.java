@@ -34,21 +34,22 @@ CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
 OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
 OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
-package projects.sanders.nodes.messages;
-
-import lombok.Getter;
-import lombok.Setter;
-import sinalgo.nodes.Node;
-import sinalgo.nodes.messages.Message;
-
-@Getter
-@Setter
-public class Requester {
-    public Node node;
-    public int timestamp;
-
-    public Requester(Node req, int ts) {
-        node = req;
-        timestamp= ts;
+package projects.sanders.nodes.timers;
+
+import projects.sanders.nodes.nodeImplementations.SandersNode;
+import sinalgo.nodes.timers.Timer;
+
+public class VoteTimeoutTimer extends Timer {
+    private SandersNode node;
+    private int grant;
+
+    public VoteTimeoutTimer(SandersNode n, int grant) {
+        this.node = n;
+        this.grant = grant;
+    }
+
+    @Override
+    public void fire() {
+        this.node.voteTimeout(grant);
     }
 }
@@ -0,0 +1,113 @@
+package projects.sanders.priority;
+
+import sinalgo.configuration.Configuration;
+import sinalgo.exception.CorruptConfigurationEntryException;
+import sinalgo.exception.SinalgoFatalException;
+import sinalgo.nodes.Node;
+
+/**
+ * Priority classes of the requests (<code>PriorityClasses</code> entry of
+ * <code>Config.xml</code>). Class 0 is the most urgent. <code>Shares</code>
+ * lists the fraction of requests of each class, e.g. <code>"0.2,0.8"</code>
+ * for a fifth of latency critical requests and the rest bulk work.
+ * <p>
+ * Arbiters order requests by deadline: the timestamp plus
+ * <code>AgingRounds</code> for each class below the first. A request of
+ * class 1 therefore goes before requests of class 0 that are more than
+ * <code>AgingRounds</code> rounds younger, so lower classes wait longer but
+ * never starve. The deadline, then the class and then the node ID give the
+ * same total order at every arbiter, which is what the inquire mechanism
+ * needs to stay free of deadlocks.
+ * <p>
+ * The class of a request is a hash of the node and the timestamp, not a
+ * random draw, so it does not change the random sequence of a run and is the
+ * same when a run is replayed.
+ */
+public class PriorityClasses {
+    private static boolean loaded;
+    private static double[] cumulativeShares = {1.0};
+    private static int agingRounds = 50;
+
+    public static void reset() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        try {
+            if (Configuration.hasParameter("PriorityClasses/Shares")) {
+                String[] shares = Configuration.getStringParameter("PriorityClasses/Shares").split(",");
+                cumulativeShares = new double[shares.length];
+                double total = 0;
+                for (int i = 0; i < shares.length; i++) {
+                    total += Double.parseDouble(shares[i].trim());
+                    cumulativeShares[i] = total;
+                }
+                if (total <= 0) {
+                    throw new SinalgoFatalException("PriorityClasses/Shares must add up to more than 0");
+                }
+                for (int i = 0; i < shares.length; i++) {
+                    cumulativeShares[i] /= total;
+                }
+            }
+            if (Configuration.hasParameter("PriorityClasses/AgingRounds")) {
+                agingRounds = Math.max(0, Configuration.getIntegerParameter("PriorityClasses/AgingRounds"));
+            }
+        } catch (CorruptConfigurationEntryException | NumberFormatException e) {
+            throw new SinalgoFatalException("Invalid PriorityClasses entry in Config.xml: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sets <code>AgingRounds</code> for runs without <code>Config.xml</code>,
+     * such as the model checker.
+     */
+    public static void setAgingRounds(int rounds) {
+        agingRounds = Math.max(0, rounds);
+    }
+
+    public static int count() {
+        return cumulativeShares.length;
+    }
+
+    /**
+     * Class of the request of <code>n</code> issued at <code>timestamp</code>.
+     */
+    public static int classOf(Node n, int timestamp) {
+        if (cumulativeShares.length == 1) {
+            return 0;
+        }
+
+        long h = (n.getID() * 0x9E3779B97F4A7C15L) ^ (timestamp * 0xC2B2AE3D27D4EB4FL);
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 29;
+        double u = (h >>> 11) * 0x1.0p-53;
+
+        for (int c = 0; c < cumulativeShares.length - 1; c++) {
+            if (u < cumulativeShares[c]) {
+                return c;
+            }
+        }
+        return cumulativeShares.length - 1;
+    }
+
+    public static long deadline(int timestamp, int priorityClass) {
+        return timestamp + (long) priorityClass * agingRounds;
+    }
+
+    /**
+     * Order of two requests at an arbiter, negative if the first one goes
+     * first.
+     */
+    public static int compare(int ts1, int class1, long id1, int ts2, int class2, long id2) {
+        int byDeadline = Long.compare(deadline(ts1, class1), deadline(ts2, class2));
+        if (byDeadline != 0) {
+            return byDeadline;
+        }
+        if (class1 != class2) {
+            return Integer.compare(class1, class2);
+        }
+        return Long.compare(id1, id2);
+    }
+}
@@ -0,0 +1,48 @@
+package projects.sanders.protocol;
+
+/**
+ * The matrix of {@link projects.sanders.models.connectivityModels.CoterieLayout}
+ * for a fixed set of participants: participant <code>id</code> sits in slot
+ * <code>id - 1</code>, at row <code>slot % width</code> and column
+ * <code>slot / width</code>, and its quorum is its row plus its column.
+ */
+public class GridQuorum implements QuorumLayout {
+    private final int size;
+    private final int width;
+
+    public GridQuorum(int size) {
+        this.size = size;
+        this.width = Math.max(1, (int) Math.sqrt(size));
+    }
+
+    @Override
+    public int[] quorum(int id) {
+        int slot = id - 1;
+        int row = slot % width;
+        int column = slot / width;
+
+        int count = 1;
+        int[] members = new int[2 * width + size / width + 1];
+        members[0] = id;
+
+        for (int s = column * width; s < Math.min(size, (column + 1) * width); s++) {
+            if (s != slot) {
+                members[count++] = s + 1;
+            }
+        }
+        for (int s = row; s < size; s += width) {
+            if (s != slot) {
+                members[count++] = s + 1;
+            }
+        }
+
+        int[] quorum = new int[count];
+        System.arraycopy(members, 0, quorum, 0, count);
+        return quorum;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
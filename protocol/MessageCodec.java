@@ -0,0 +1,97 @@
+package projects.sanders.protocol;
+
+import projects.sanders.nodes.messages.MessageTypes;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary form of the protocol messages, shared by the live runtime and the
+ * execution log. A frame is the type byte (see {@link MessageTypes}) followed
+ * by varints: sender ID, timestamp and grant, which for requests is the
+ * priority class. Most frames take 4 to 6 bytes.
+ * <p>
+ * Frames are self delimiting, so a buffer holds any number of them back to
+ * back. Encoding and decoding work directly on a caller owned
+ * {@link ByteBuffer}, and decoding fills a reusable {@link Frame}, so no
+ * object is created per message.
+ */
+public class MessageCodec {
+    // type, a non negative sender and two ints
+    public static final int MAX_FRAME_SIZE = 1 + 9 + 5 + 5;
+
+    public static class Frame {
+        public byte type;
+        public long sender;
+        public int timestamp;
+        public int grant;
+    }
+
+    /**
+     * Timestamps and grants may be any int. Senders are node IDs and must not
+     * be negative: decoding could not tell one from a truncated frame.
+     */
+    public static void encode(ByteBuffer out, byte type, long sender, int timestamp, int grant) {
+        if (sender < 0) {
+            throw new IllegalArgumentException("negative sender " + sender);
+        }
+        out.put(type);
+        putVarLong(out, sender);
+        putVarLong(out, timestamp & 0xFFFFFFFFL);
+        putVarLong(out, grant & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Reads the next frame of <code>in</code> into <code>frame</code>.
+     *
+     * @return false, leaving the buffer untouched, if the buffer ends before
+     * the frame does
+     */
+    public static boolean decode(ByteBuffer in, Frame frame) {
+        int start = in.position();
+        if (!in.hasRemaining()) {
+            return false;
+        }
+
+        byte type = in.get();
+        long sender = getVarLong(in);
+        long timestamp = getVarLong(in);
+        long grant = getVarLong(in);
+
+        if (sender < 0 || timestamp < 0 || grant < 0) {
+            in.position(start);
+            return false;
+        }
+
+        frame.type = type;
+        frame.sender = sender;
+        frame.timestamp = (int) timestamp;
+        frame.grant = (int) grant;
+        return true;
+    }
+
+    public static void putVarLong(ByteBuffer out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    /**
+     * @return the value, or -1 if the buffer ends before the varint does
+     */
+    public static long getVarLong(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!in.hasRemaining()) {
+                return -1;
+            }
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+}
@@ -0,0 +1,344 @@
+package projects.sanders.protocol;
+
+import projects.sanders.nodes.messages.MessageTypes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link SandersStateMachine} over many independent resources at once,
+ * instead of one protocol instance per resource. Every participant arbitrates
+ * every resource with the same quorum, and keeps one state machine for each
+ * resource it has a vote out, a request queued or a request of its own for;
+ * the others have no entry, so memory follows the resources in use, not the
+ * resources that exist.
+ * <p>
+ * A participant asks for a set of resources with a single request and a
+ * single timestamp, and enters once it holds the vote of every arbiter of its
+ * quorum for every resource of the set: until then the state machines of the
+ * set keep answering inquiries. Since all resources order requests by the
+ * same timestamp and ID, the oldest request is the first one at every arbiter
+ * of every resource it asks for: the inquire mechanism takes back the votes it
+ * needs, and acquiring several resources cannot deadlock, whatever the order
+ * the sets are given in.
+ * <p>
+ * Messages for the same arbiter or requester are batched: a message carries a
+ * type, a timestamp and pairs of resource ID and grant. A request for k
+ * resources costs one message per arbiter, not k, and so do the votes an
+ * arbiter gives while handling one message and the release. Grant numbers are
+ * counted per arbiter across resources, so they keep growing when the state
+ * machine of a resource is dropped and made again.
+ * <p>
+ * The transports deliver every message in order, and each participant must
+ * be driven by a single thread.
+ */
+public class MultiResourceProtocol {
+    public interface Transport {
+        /**
+         * @param pairs resource ID and grant pairs, owned by the receiver
+         */
+        void send(int to, byte type, int timestamp, int[] pairs);
+    }
+
+    private static class Batch {
+        final int to;
+        final byte type;
+        final int timestamp;
+        int[] pairs = new int[8];
+        int length;
+
+        Batch(int to, byte type, int timestamp) {
+            this.to = to;
+            this.type = type;
+            this.timestamp = timestamp;
+        }
+
+        void add(int resource, int grant) {
+            if (length == pairs.length) {
+                pairs = Arrays.copyOf(pairs, 2 * length);
+            }
+            pairs[length++] = resource;
+            pairs[length++] = grant;
+        }
+    }
+
+    // the protocol for one resource; its messages join the batches of the step
+    private class Resource implements SandersStateMachine.Host<Integer> {
+        final int id;
+        final SandersStateMachine<Integer> machine = new SandersStateMachine<>(this);
+
+        Resource(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public long idOf(Integer participant) {
+            return participant;
+        }
+
+        @Override
+        public void send(Integer to, byte type, int timestamp, int value) {
+            // the transports lose nothing, so every relinquish gives a vote back
+            if (type == MessageTypes.RELINQUISH) {
+                relinquishCounter++;
+            }
+            queue(to, type, timestamp, id, value);
+        }
+
+        @Override
+        public boolean mayEnter() {
+            return entering || allVotesHeld();
+        }
+
+        @Override
+        public void entered() {
+            enteredAll();
+        }
+
+        @Override
+        public int nextGrant(int last) {
+            return ++grantSeq;
+        }
+    }
+
+    private final int id;
+    private final int[] quorum;
+    private final List<Integer> arbiters;
+    private final Transport transport;
+
+    private int clock;
+
+    // requester state; resources sorted
+    private boolean waitingCS;
+    private boolean inCs;
+    private int myTs;
+    private int[] resources = new int[0];
+    private Resource[] requested = new Resource[0];
+    // first resource of the request found missing a vote
+    private int missing;
+    private boolean entering;
+    private Runnable onEnter;
+
+    // resource id -> its state machine, only while in use
+    private final IntMap<Resource> states = new IntMap<>();
+    private int grantSeq;
+
+    // messages of the current step, merged by destination until flushed
+    private final ArrayList<Batch> outbox = new ArrayList<>();
+    private int flushed;
+    private boolean flushing;
+
+    private long relinquishCounter;
+    private long messageCounter;
+
+    public MultiResourceProtocol(int id, QuorumLayout layout, Transport transport) {
+        this.id = id;
+        this.quorum = layout.quorum(id);
+        this.transport = transport;
+
+        List<Integer> members = new ArrayList<>();
+        for (int arbiter : quorum) {
+            members.add(arbiter);
+        }
+        this.arbiters = Collections.unmodifiableList(members);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int[] getQuorum() {
+        return quorum;
+    }
+
+    public boolean isInCs() {
+        return inCs;
+    }
+
+    public boolean isWaitingCS() {
+        return waitingCS;
+    }
+
+    /**
+     * Resources of the current or last request, sorted.
+     */
+    public int[] getResources() {
+        return resources.clone();
+    }
+
+    public long getRelinquishCounter() {
+        return relinquishCounter;
+    }
+
+    /**
+     * Messages sent to other participants, each one a batch.
+     */
+    public long getMessageCounter() {
+        return messageCounter;
+    }
+
+    /**
+     * Resources this participant keeps a state machine for.
+     */
+    public int getActiveResources() {
+        return states.size();
+    }
+
+    /**
+     * Asks the quorum for every resource of <code>resources</code> at once;
+     * <code>onEnter</code> runs on the thread driving this participant once
+     * all of them are held. Duplicated IDs count once.
+     */
+    public void request(int[] resources, Runnable onEnter) {
+        if (waitingCS || inCs) {
+            throw new IllegalStateException("participant " + id + " already asked for the critical session");
+        }
+        if (resources.length == 0) {
+            throw new IllegalArgumentException("participant " + id + " asked for no resource");
+        }
+
+        int[] sorted = resources.clone();
+        Arrays.sort(sorted);
+        int distinct = 1;
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] != sorted[distinct - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+
+        waitingCS = true;
+        myTs = ++clock;
+        missing = 0;
+        this.onEnter = onEnter;
+        this.resources = Arrays.copyOf(sorted, distinct);
+        requested = new Resource[distinct];
+        for (int r = 0; r < distinct; r++) {
+            requested[r] = resource(this.resources[r]);
+        }
+
+        for (Resource resource : requested) {
+            resource.machine.request(myTs, 0, arbiters);
+        }
+        flush();
+    }
+
+    public void release() {
+        if (!inCs) {
+            throw new IllegalStateException("participant " + id + " is not in critical session");
+        }
+
+        inCs = false;
+        for (Resource resource : requested) {
+            resource.machine.release();
+        }
+        flush();
+
+        for (Resource resource : requested) {
+            dropIfIdle(resource);
+        }
+    }
+
+    public void handle(int sender, byte type, int timestamp, int[] pairs) {
+        receive(sender, type, timestamp, pairs, pairs.length);
+        flush();
+    }
+
+    private void receive(int sender, byte type, int timestamp, int[] pairs, int length) {
+        clock = Math.max(clock, timestamp);
+
+        for (int i = 0; i < length; i += 2) {
+            Resource resource = resource(pairs[i]);
+            resource.machine.handle(sender, type, timestamp, pairs[i + 1]);
+            dropIfIdle(resource);
+        }
+    }
+
+    private Resource resource(int resource) {
+        Resource state = states.get(resource);
+        if (state == null) {
+            state = new Resource(resource);
+            states.put(resource, state);
+        }
+        return state;
+    }
+
+    private void dropIfIdle(Resource resource) {
+        if (resource.machine.isIdle() && states.get(resource.id) == resource) {
+            states.remove(resource.id);
+        }
+    }
+
+    // resources are checked from the last one found missing a vote, so a vote rarely costs a full scan
+    private boolean allVotesHeld() {
+        for (int i = 0; i < requested.length; i++) {
+            int r = (missing + i) % requested.length;
+            if (!requested[r].machine.hasAllVotes()) {
+                missing = r;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void enteredAll() {
+        if (entering) {
+            return;
+        }
+
+        entering = true;
+        for (Resource resource : requested) {
+            resource.machine.tryEnter();
+        }
+        entering = false;
+
+        inCs = true;
+        waitingCS = false;
+        onEnter.run();
+    }
+
+    // joins the last batch for the destination when it has the same type and timestamp, so the order holds
+    private void queue(int to, byte type, int timestamp, int resource, int grant) {
+        Batch batch = null;
+        for (int i = outbox.size() - 1; i >= flushed; i--) {
+            Batch last = outbox.get(i);
+            if (last.to == to) {
+                if (last.type == type && last.timestamp == timestamp) {
+                    batch = last;
+                }
+                break;
+            }
+        }
+
+        if (batch == null) {
+            batch = new Batch(to, type, timestamp);
+            outbox.add(batch);
+        }
+        batch.add(resource, grant);
+    }
+
+    // messages to itself are handled here, before the step ends
+    private void flush() {
+        if (flushing) {
+            return;
+        }
+        flushing = true;
+
+        try {
+            while (flushed < outbox.size()) {
+                Batch batch = outbox.get(flushed++);
+                if (batch.to == id) {
+                    receive(id, batch.type, batch.timestamp, batch.pairs, batch.length);
+                } else {
+                    transport.send(batch.to, batch.type, batch.timestamp, Arrays.copyOf(batch.pairs, batch.length));
+                    messageCounter++;
+                }
+            }
+        } finally {
+            outbox.clear();
+            flushed = 0;
+            flushing = false;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package projects.sanders.protocol;
+
+/**
+ * Gives the arbiters a participant has to ask before entering the critical
+ * session. Participants are numbered from 1 to n, like the simulation nodes,
+ * and every two quorums must intersect.
+ */
+public interface QuorumLayout {
+    /**
+     * Arbiters of <code>id</code>, the participant itself included.
+     */
+    int[] quorum(int id);
+
+    int size();
+}
@@ -0,0 +1,224 @@
+package projects.sanders.protocol;
+
+import projects.sanders.nodes.messages.MessageTypes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link SandersStateMachine} without the simulator, for participants
+ * numbered from 1 to n with a fixed quorum: messages are a type (see
+ * {@link MessageTypes}), a timestamp and a grant, and leave through a
+ * {@link Transport}.
+ * <p>
+ * The simulation uses the round as a global clock. Here each participant keeps
+ * a Lamport clock instead, moved forward by the timestamps it receives, and
+ * ties are broken by ID as in the deferred queue of the simulation.
+ * <p>
+ * The live runtime and the lock service deliver every message, in order, so
+ * they never call the retransmissions; the model checker does, to reach the
+ * branches that handle duplicated messages.
+ * <p>
+ * Not thread safe: each participant must be driven by a single thread.
+ */
+public class SandersProtocol {
+    public interface Transport {
+        void send(int to, byte type, int timestamp, int grant);
+    }
+
+    private static final int STATE_FIELDS = 8;
+    private static final Runnable NO_CALLBACK = () -> {
+    };
+
+    private final int id;
+    private final int[] quorum;
+    private final List<Integer> arbiters;
+    private final Transport transport;
+    private final SandersStateMachine<Integer> machine;
+
+    private int clock;
+    private Runnable onEnter = NO_CALLBACK;
+
+    public SandersProtocol(int id, QuorumLayout layout, Transport transport) {
+        this.id = id;
+        this.quorum = layout.quorum(id);
+        this.transport = transport;
+
+        List<Integer> members = new ArrayList<>();
+        for (int arbiter : quorum) {
+            members.add(arbiter);
+        }
+        this.arbiters = Collections.unmodifiableList(members);
+
+        this.machine = new SandersStateMachine<>(new SandersStateMachine.Host<Integer>() {
+            @Override
+            public long idOf(Integer participant) {
+                return participant;
+            }
+
+            // messages to itself are handled right away, as in the simulation
+            @Override
+            public void send(Integer to, byte type, int timestamp, int value) {
+                if (to == SandersProtocol.this.id) {
+                    handle(to, type, timestamp, value);
+                } else {
+                    SandersProtocol.this.transport.send(to, type, timestamp, value);
+                }
+            }
+
+            @Override
+            public void entered() {
+                onEnter.run();
+            }
+        });
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int[] getQuorum() {
+        return quorum;
+    }
+
+    public boolean isInCs() {
+        return machine.isInCs();
+    }
+
+    public boolean isWaitingCS() {
+        return machine.isWaitingCS();
+    }
+
+    public boolean isHasVoted() {
+        return machine.isHasVoted();
+    }
+
+    public long getRelinquishCounter() {
+        return machine.getRelinquishCounter();
+    }
+
+    /**
+     * The protocol state as ints, for the model checker: clock, flags, the
+     * requester and arbiter fields, the held, last and inquired grant of each
+     * arbiter and the deferred queue in poll order, so equal states give equal
+     * arrays. The relinquish counter and the entry callback are left out.
+     */
+    public int[] getState() {
+        int q = quorum.length;
+        @SuppressWarnings("unchecked")
+        SandersStateMachine.Requester<Integer>[] deferred =
+                machine.getDeferredQ().toArray(new SandersStateMachine.Requester[0]);
+        Arrays.sort(deferred, machine.getDeferredQ().comparator());
+
+        int[] state = new int[STATE_FIELDS + 3 * q + 3 * deferred.length];
+        state[0] = clock;
+        state[1] = (machine.isWaitingCS() ? 1 : 0) | (machine.isInCs() ? 2 : 0) | (machine.isHasVoted() ? 4 : 0)
+                | (machine.isInquired() ? 8 : 0);
+        state[2] = machine.getMyTs();
+        state[3] = machine.getMyClass();
+        state[4] = machine.getCandidate() != null ? machine.getCandidate() : 0;
+        state[5] = machine.getCandidateTs();
+        state[6] = machine.getCandidateClass();
+        state[7] = machine.getGrantSeq();
+
+        for (int i = 0; i < q; i++) {
+            SandersStateMachine.Vote<Integer> held = machine.getHeldVote(quorum[i]);
+            state[STATE_FIELDS + i] = held != null ? held.grant : 0;
+            state[STATE_FIELDS + q + i] = machine.getLastGrant().getOrDefault((long) quorum[i], 0);
+            state[STATE_FIELDS + 2 * q + i] = machine.getPendingInq().getOrDefault((long) quorum[i], 0);
+        }
+
+        int next = STATE_FIELDS + 3 * q;
+        for (SandersStateMachine.Requester<Integer> r : deferred) {
+            state[next++] = r.participant;
+            state[next++] = r.timestamp;
+            state[next++] = r.priorityClass;
+        }
+        return state;
+    }
+
+    /**
+     * Restores a state of {@link #getState}. A participant restored while
+     * waiting enters the critical session without a callback.
+     */
+    public void setState(int[] state) {
+        int q = quorum.length;
+        clock = state[0];
+
+        List<SandersStateMachine.Vote<Integer>> held = new ArrayList<>();
+        machine.getLastGrant().clear();
+        machine.getPendingInq().clear();
+        for (int i = 0; i < q; i++) {
+            if (state[STATE_FIELDS + i] != 0) {
+                held.add(new SandersStateMachine.Vote<>(quorum[i], state[STATE_FIELDS + i]));
+            }
+            if (state[STATE_FIELDS + q + i] != 0) {
+                machine.getLastGrant().put((long) quorum[i], state[STATE_FIELDS + q + i]);
+            }
+            if (state[STATE_FIELDS + 2 * q + i] != 0) {
+                machine.getPendingInq().put((long) quorum[i], state[STATE_FIELDS + 2 * q + i]);
+            }
+        }
+        machine.restoreRequest((state[1] & 1) != 0, (state[1] & 2) != 0, state[2], state[3], arbiters, held);
+
+        List<SandersStateMachine.Requester<Integer>> deferred = new ArrayList<>();
+        for (int i = STATE_FIELDS + 3 * q; i < state.length; i += 3) {
+            deferred.add(new SandersStateMachine.Requester<>(state[i], state[i], state[i + 1], state[i + 2]));
+        }
+        machine.restoreVote((state[1] & 4) != 0, (state[1] & 8) != 0, state[4] != 0 ? state[4] : null, state[5],
+                state[6], state[7], deferred);
+        onEnter = NO_CALLBACK;
+    }
+
+    /**
+     * Asks the quorum for the critical session; <code>onEnter</code> runs on
+     * the thread driving this participant once every vote is held.
+     */
+    public void request(Runnable onEnter) {
+        request(0, onEnter);
+    }
+
+    /**
+     * As {@link #request(Runnable)}, in a priority class of
+     * {@link projects.sanders.priority.PriorityClasses}.
+     */
+    public void request(int priorityClass, Runnable onEnter) {
+        if (isWaitingCS() || isInCs()) {
+            throw new IllegalStateException("participant " + id + " already asked for the critical session");
+        }
+
+        this.onEnter = onEnter;
+        machine.request(++clock, priorityClass, arbiters);
+    }
+
+    public void release() {
+        if (!isInCs()) {
+            throw new IllegalStateException("participant " + id + " is not in critical session");
+        }
+
+        machine.release();
+    }
+
+    /**
+     * Asks again every arbiter whose vote is missing, as a request timeout of
+     * the simulation does.
+     */
+    public void retransmitRequest() {
+        machine.retransmitRequest(arbiters);
+    }
+
+    /**
+     * Sends the vote and the inquire again, as a vote timeout of the
+     * simulation does while the candidate is alive.
+     */
+    public void retransmitVote() {
+        machine.retransmitVote();
+    }
+
+    public void handle(int sender, byte type, int timestamp, int grant) {
+        clock = Math.max(clock, timestamp);
+        machine.handle(sender, type, timestamp, grant);
+    }
+}
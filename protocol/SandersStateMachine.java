@@ -0,0 +1,606 @@
+package projects.sanders.protocol;
+
+import projects.sanders.nodes.messages.MessageTypes;
+import projects.sanders.priority.PriorityClasses;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * The request / yes / inquire / relinquish / release handling of one
+ * participant. Every runtime of the protocol drives this class instead of a
+ * copy of it: the simulation
+ * ({@link projects.sanders.nodes.nodeImplementations.SandersNode}), the live
+ * runtime, the lock service and the model checker (through
+ * {@link SandersProtocol}), the compact simulation and, one instance per
+ * resource, {@link MultiResourceProtocol}.
+ * <p>
+ * Participants are of any type <code>P</code> with a numeric ID, given by the
+ * {@link Host}, which also sends the messages and is told about votes and
+ * entries. A message is a type (see {@link MessageTypes}), a timestamp and a
+ * value: the grant of a vote, or the priority class of a request. Timestamps
+ * come from the host, the round in the simulation and a Lamport clock
+ * elsewhere; requests are ordered by {@link PriorityClasses}.
+ * <p>
+ * Votes carry their grant number, so stale, duplicated and retransmitted
+ * messages are told apart, and the quorum of a pending request may change
+ * while it waits (dead arbiters substituted, nodes joining or leaving).
+ * <p>
+ * Not thread safe: each participant must be driven by a single thread.
+ */
+public class SandersStateMachine<P> {
+    public interface Host<P> {
+        long idOf(P participant);
+
+        /**
+         * Sends a message. Messages to the participant itself must be given
+         * back to {@link #handle}, right away or at the end of the step.
+         */
+        void send(P to, byte type, int timestamp, int value);
+
+        /**
+         * Called once the participant is in critical session.
+         */
+        void entered();
+
+        /**
+         * Whether the participant may enter once every vote of this request
+         * is held; a participant asking for more than one instance at once
+         * waits for all of them.
+         */
+        default boolean mayEnter() {
+            return true;
+        }
+
+        /**
+         * Whether a queued requester still waits for the vote; crashed and
+         * departed requesters are skipped.
+         */
+        default boolean isWaiting(P requester) {
+            return true;
+        }
+
+        default void voteGranted(P requester) {
+        }
+
+        default void voteFreed() {
+        }
+
+        /**
+         * Number of the next vote granted, greater than every grant before.
+         */
+        default int nextGrant(int last) {
+            return last + 1;
+        }
+    }
+
+    public static class Vote<P> {
+        public final P arbiter;
+        public final int grant;
+
+        public Vote(P arbiter, int grant) {
+            this.arbiter = arbiter;
+            this.grant = grant;
+        }
+    }
+
+    public static class Requester<P> {
+        public final P participant;
+        public final long id;
+        public final int timestamp;
+        public final int priorityClass;
+
+        public Requester(P participant, long id, int timestamp, int priorityClass) {
+            this.participant = participant;
+            this.id = id;
+            this.timestamp = timestamp;
+            this.priorityClass = priorityClass;
+        }
+    }
+
+    private final Host<P> host;
+
+    // requester state
+    private boolean waitingCS;
+    private boolean inCs;
+    private int myTs;
+    private int myClass;
+    // arbiters asked for the current request, by ID, in the order they were asked
+    private final LinkedHashMap<Long, P> quorum = new LinkedHashMap<>();
+    // arbiter id -> vote currently held
+    private final HashMap<Long, Vote<P>> heldVotes = new HashMap<>();
+    // arbiter id -> highest grant ever received, used to drop duplicates
+    private final HashMap<Long, Integer> lastGrant = new HashMap<>();
+    // arbiter id -> grant that was inquired before its yes message arrived
+    private final HashMap<Long, Integer> pendingInq = new HashMap<>();
+    private int relinquishCounter;
+
+    // arbiter state
+    private boolean hasVoted;
+    private boolean inquired;
+    private P candidate;
+    private int candidateTs;
+    private int candidateClass;
+    // sequence number of the last vote granted
+    private int grantSeq;
+    private final PriorityQueue<Requester<P>> deferredQ = new PriorityQueue<>(5, (a, b) ->
+            PriorityClasses.compare(a.timestamp, a.priorityClass, a.id, b.timestamp, b.priorityClass, b.id));
+
+    public SandersStateMachine(Host<P> host) {
+        this.host = host;
+    }
+
+    public boolean isWaitingCS() {
+        return waitingCS;
+    }
+
+    public boolean isInCs() {
+        return inCs;
+    }
+
+    public int getMyTs() {
+        return myTs;
+    }
+
+    public int getMyClass() {
+        return myClass;
+    }
+
+    public int getYesVotes() {
+        return heldVotes.size();
+    }
+
+    public int getRelinquishCounter() {
+        return relinquishCounter;
+    }
+
+    public boolean isHasVoted() {
+        return hasVoted;
+    }
+
+    public boolean isInquired() {
+        return inquired;
+    }
+
+    public P getCandidate() {
+        return candidate;
+    }
+
+    public int getCandidateTs() {
+        return candidateTs;
+    }
+
+    public int getCandidateClass() {
+        return candidateClass;
+    }
+
+    public int getGrantSeq() {
+        return grantSeq;
+    }
+
+    /**
+     * Arbiters of the current request.
+     */
+    public Collection<P> getQuorum() {
+        return Collections.unmodifiableCollection(quorum.values());
+    }
+
+    public Collection<Vote<P>> getHeldVotes() {
+        return Collections.unmodifiableCollection(heldVotes.values());
+    }
+
+    public Vote<P> getHeldVote(long arbiter) {
+        return heldVotes.get(arbiter);
+    }
+
+    /**
+     * Highest grant received from each arbiter, by arbiter ID; live, so a
+     * restored state can be written back into it.
+     */
+    public Map<Long, Integer> getLastGrant() {
+        return lastGrant;
+    }
+
+    /**
+     * Grants inquired before their yes message arrived, by arbiter ID; live,
+     * like {@link #getLastGrant}.
+     */
+    public Map<Long, Integer> getPendingInq() {
+        return pendingInq;
+    }
+
+    public PriorityQueue<Requester<P>> getDeferredQ() {
+        return deferredQ;
+    }
+
+    /**
+     * Nothing to remember but the grant sequence: no request, no vote out and
+     * nobody queued.
+     */
+    public boolean isIdle() {
+        return !waitingCS && !inCs && !hasVoted && deferredQ.isEmpty();
+    }
+
+    /**
+     * Arbiters of the current request whose vote is not held.
+     */
+    public List<P> missingVotes() {
+        List<P> missing = new ArrayList<>();
+        for (Map.Entry<Long, P> arbiter : quorum.entrySet()) {
+            if (!heldVotes.containsKey(arbiter.getKey())) {
+                missing.add(arbiter.getValue());
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Asks every arbiter of <code>arbiters</code> (the participant itself
+     * included) for the critical session.
+     */
+    public void request(int timestamp, int priorityClass, Collection<P> arbiters) {
+        if (waitingCS || inCs) {
+            throw new IllegalStateException("participant already asked for the critical session");
+        }
+
+        waitingCS = true;
+        myTs = timestamp;
+        myClass = priorityClass;
+        heldVotes.clear();
+        pendingInq.clear();
+        setQuorum(arbiters);
+
+        for (P arbiter : new ArrayList<>(quorum.values())) {
+            host.send(arbiter, MessageTypes.REQUEST, myTs, myClass);
+        }
+    }
+
+    /**
+     * Leaves the critical session, giving back every held vote: the quorum
+     * may have changed while inside.
+     */
+    public void release() {
+        if (!inCs) {
+            throw new IllegalStateException("participant is not in critical session");
+        }
+
+        inCs = false;
+        for (Vote<P> vote : new ArrayList<>(heldVotes.values())) {
+            host.send(vote.arbiter, MessageTypes.RELEASE, myTs, vote.grant);
+        }
+        heldVotes.clear();
+    }
+
+    /**
+     * Forgets the request, as a crash does: the state of the requester is
+     * lost while the vote of the arbiter survives.
+     */
+    public void dropRequest() {
+        inCs = false;
+        waitingCS = false;
+        quorum.clear();
+        heldVotes.clear();
+        pendingInq.clear();
+    }
+
+    /**
+     * Moves the pending request to <code>arbiters</code>: the votes of
+     * arbiters no longer asked are given back and the new ones are asked.
+     */
+    public void changeQuorum(Collection<P> arbiters) {
+        if (!waitingCS) {
+            return;
+        }
+
+        Set<Long> previous = new HashSet<>(quorum.keySet());
+        setQuorum(arbiters);
+        reconcileVotes();
+
+        for (P arbiter : new ArrayList<>(quorum.values())) {
+            if (waitingCS && !previous.contains(host.idOf(arbiter))) {
+                host.send(arbiter, MessageTypes.REQUEST, myTs, myClass);
+            }
+        }
+
+        tryEnter();
+    }
+
+    /**
+     * Asks again, with the same timestamp, every arbiter of
+     * <code>arbiters</code> whose vote is missing, after moving the request
+     * there as {@link #changeQuorum} does.
+     *
+     * @return the number of requests sent
+     */
+    public int retransmitRequest(Collection<P> arbiters) {
+        if (!waitingCS) {
+            return 0;
+        }
+
+        setQuorum(arbiters);
+        reconcileVotes();
+
+        int sent = 0;
+        for (Map.Entry<Long, P> arbiter : new ArrayList<>(quorum.entrySet())) {
+            if (waitingCS && !heldVotes.containsKey(arbiter.getKey())) {
+                sent++;
+                host.send(arbiter.getValue(), MessageTypes.REQUEST, myTs, myClass);
+            }
+        }
+
+        tryEnter();
+        return sent;
+    }
+
+    /**
+     * Sends the vote, and the inquire if there is one, to the candidate again
+     * in case they were lost.
+     */
+    public void retransmitVote() {
+        if (!hasVoted) {
+            return;
+        }
+
+        int grant = grantSeq;
+        host.send(candidate, MessageTypes.YES, candidateTs, grant);
+        if (hasVoted && grant == grantSeq && inquired) {
+            host.send(candidate, MessageTypes.INQ, candidateTs, grant);
+        }
+    }
+
+    /**
+     * Takes the vote back from a candidate that will never release it and
+     * gives it to the next requester.
+     */
+    public void reclaimVote() {
+        if (hasVoted) {
+            grantNext();
+        }
+    }
+
+    /**
+     * Forgets the queued requesters for which <code>gone</code> holds, and
+     * takes back the vote if the candidate is one of them.
+     */
+    public void dropRequesters(Predicate<P> gone) {
+        deferredQ.removeIf(r -> gone.test(r.participant));
+        if (hasVoted && gone.test(candidate)) {
+            grantNext();
+        }
+    }
+
+    /**
+     * Enters the critical session if every vote is held and the host agrees.
+     * Votes are checked as they arrive, so only a host whose
+     * {@link Host#mayEnter} said no needs to call this.
+     */
+    public void tryEnter() {
+        if (waitingCS && heldVotes.size() == quorum.size() && host.mayEnter()) {
+            inCs = true;
+            waitingCS = false;
+            host.entered();
+        }
+    }
+
+    /**
+     * Whether the pending request holds the vote of every arbiter.
+     */
+    public boolean hasAllVotes() {
+        return waitingCS && heldVotes.size() == quorum.size();
+    }
+
+    public void handle(P sender, byte type, int timestamp, int value) {
+        switch (type) {
+            case MessageTypes.YES:
+                handleYes(sender, timestamp, value);
+                break;
+            case MessageTypes.INQ:
+                handleInq(sender, timestamp, value);
+                break;
+            case MessageTypes.REQUEST:
+                handleRequest(sender, timestamp, value);
+                break;
+            case MessageTypes.RELINQUISH:
+                handleRelinquish(sender, value);
+                break;
+            case MessageTypes.RELEASE:
+                handleRelease(sender, value);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown message type " + type);
+        }
+    }
+
+    /**
+     * Sets the requester state, for checkpoints and the model checker.
+     */
+    public void restoreRequest(boolean waitingCS, boolean inCs, int myTs, int myClass, Collection<P> arbiters,
+                               Collection<Vote<P>> held) {
+        this.waitingCS = waitingCS;
+        this.inCs = inCs;
+        this.myTs = myTs;
+        this.myClass = myClass;
+        setQuorum(arbiters);
+        heldVotes.clear();
+        for (Vote<P> vote : held) {
+            heldVotes.put(host.idOf(vote.arbiter), vote);
+        }
+    }
+
+    /**
+     * Sets the arbiter state, for checkpoints and the model checker.
+     */
+    public void restoreVote(boolean hasVoted, boolean inquired, P candidate, int candidateTs, int candidateClass,
+                            int grantSeq, Collection<Requester<P>> deferred) {
+        this.hasVoted = hasVoted;
+        this.inquired = inquired;
+        this.candidate = candidate;
+        this.candidateTs = candidateTs;
+        this.candidateClass = candidateClass;
+        this.grantSeq = grantSeq;
+        deferredQ.clear();
+        deferredQ.addAll(deferred);
+    }
+
+    public void setRelinquishCounter(int relinquishCounter) {
+        this.relinquishCounter = relinquishCounter;
+    }
+
+    private void setQuorum(Collection<P> arbiters) {
+        quorum.clear();
+        for (P arbiter : arbiters) {
+            quorum.putIfAbsent(host.idOf(arbiter), arbiter);
+        }
+    }
+
+    // drops the votes of arbiters that are no longer asked, giving them back
+    private void reconcileVotes() {
+        for (Vote<P> vote : new ArrayList<>(heldVotes.values())) {
+            long arbiter = host.idOf(vote.arbiter);
+            if (!quorum.containsKey(arbiter)) {
+                heldVotes.remove(arbiter);
+                host.send(vote.arbiter, MessageTypes.RELEASE, myTs, vote.grant);
+            }
+        }
+    }
+
+    private void handleYes(P sender, int timestamp, int grant) {
+        long arbiter = host.idOf(sender);
+
+        // a vote for a request that is already over (or from an arbiter that is no
+        // longer asked) is given back right away
+        if ((!waitingCS && !inCs) || timestamp != myTs || !quorum.containsKey(arbiter)) {
+            host.send(sender, MessageTypes.RELEASE, timestamp, grant);
+            return;
+        }
+
+        Integer seen = lastGrant.get(arbiter);
+        if (seen != null && grant <= seen) {
+            // duplicated or retransmitted vote
+            return;
+        }
+        lastGrant.put(arbiter, grant);
+
+        Integer inquiredGrant = pendingInq.remove(arbiter);
+        if (inquiredGrant != null && inquiredGrant == grant && waitingCS) {
+            // the arbiter asked for this vote back before it got here
+            host.send(sender, MessageTypes.RELINQUISH, timestamp, grant);
+            relinquishCounter++;
+            return;
+        }
+
+        heldVotes.put(arbiter, new Vote<>(sender, grant));
+        tryEnter();
+    }
+
+    private void handleInq(P sender, int timestamp, int grant) {
+        if (!waitingCS || myTs != timestamp) {
+            return;
+        }
+
+        long arbiter = host.idOf(sender);
+        Vote<P> held = heldVotes.get(arbiter);
+        Integer seen = lastGrant.get(arbiter);
+
+        if (held != null && held.grant == grant) {
+            heldVotes.remove(arbiter);
+            host.send(sender, MessageTypes.RELINQUISH, timestamp, grant);
+            relinquishCounter++;
+        } else if (seen != null && grant <= seen) {
+            // vote already given back, the relinquish message was lost
+            host.send(sender, MessageTypes.RELINQUISH, timestamp, grant);
+        } else {
+            // yes message still on its way
+            pendingInq.put(arbiter, grant);
+        }
+    }
+
+    private void handleRequest(P sender, int timestamp, int priorityClass) {
+        long requester = host.idOf(sender);
+
+        if (hasVoted && host.idOf(candidate) == requester && candidateTs == timestamp) {
+            // retransmitted request, our vote may have been lost
+            host.send(sender, MessageTypes.YES, timestamp, grantSeq);
+            return;
+        }
+
+        if (!hasVoted) {
+            grantVote(sender, timestamp, priorityClass);
+            return;
+        }
+
+        deferRequester(sender, timestamp, priorityClass);
+
+        // the deadline order of the deferred queue decides, so urgent classes take votes from bulk work
+        if (PriorityClasses.compare(timestamp, priorityClass, requester,
+                candidateTs, candidateClass, host.idOf(candidate)) < 0 && !inquired) {
+            // request vote annulment
+            inquired = true;
+            host.send(candidate, MessageTypes.INQ, candidateTs, grantSeq);
+        }
+    }
+
+    private void handleRelinquish(P sender, int grant) {
+        if (!isCurrentVote(sender, grant) || !inquired) {
+            return;
+        }
+
+        deferRequester(candidate, candidateTs, candidateClass);
+        grantNext();
+    }
+
+    private void handleRelease(P sender, int grant) {
+        if (isCurrentVote(sender, grant)) {
+            grantNext();
+        }
+    }
+
+    private boolean isCurrentVote(P sender, int grant) {
+        return hasVoted && host.idOf(candidate) == host.idOf(sender) && grant == grantSeq;
+    }
+
+    // a requester has at most one outstanding request, so older entries go away
+    private void deferRequester(P requester, int timestamp, int priorityClass) {
+        long id = host.idOf(requester);
+        deferredQ.removeIf(r -> r.id == id);
+        deferredQ.add(new Requester<>(requester, id, timestamp, priorityClass));
+    }
+
+    private void grantVote(P requester, int timestamp, int priorityClass) {
+        grantSeq = host.nextGrant(grantSeq);
+        candidate = requester;
+        candidateTs = timestamp;
+        candidateClass = priorityClass;
+        hasVoted = true;
+        inquired = false;
+
+        host.voteGranted(requester);
+        host.send(requester, MessageTypes.YES, timestamp, grantSeq);
+    }
+
+    private void grantNext() {
+        Requester<P> next = deferredQ.poll();
+
+        // requesters that crashed or left while queued are not waiting anymore
+        while (next != null && !host.isWaiting(next.participant)) {
+            next = deferredQ.poll();
+        }
+
+        if (next != null) {
+            grantVote(next.participant, next.timestamp, next.priorityClass);
+        } else {
+            hasVoted = false;
+            inquired = false;
+            host.voteFreed();
+        }
+    }
+}
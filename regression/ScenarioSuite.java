@@ -0,0 +1,236 @@
+package projects.sanders.regression;
+
+import projects.sanders.compact.CompactSimulation;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Fixed seed scenarios run headless on {@link CompactSimulation}, which drives
+ * the same {@link projects.sanders.protocol.SandersStateMachine} as
+ * {@link projects.sanders.nodes.nodeImplementations.SandersNode}, and compared
+ * with stored baselines, to catch protocol changes that cost messages, entries
+ * or speed.
+ * <p>
+ * Scenarios are the grids of 4, 16, 64 and 256 nodes, each without delay and
+ * with the delay of <code>Config.xml</code> (probability 0.5, 3 rounds), under
+ * three loads. The grid admits about one entry every
+ * {@link #ROUNDS_PER_ENTRY} rounds whatever its size, so the low and medium
+ * loads ask for a fixed fraction of that (the critical session probability is
+ * the fraction divided by the nodes and the rounds per entry) and stay below
+ * saturation on every grid; the saturated load asks every round.
+ * <p>
+ * Each scenario records messages per entry, entries per 1000 rounds, p99
+ * entry latency and rounds per second. The first three only depend on the
+ * seed, so any change shows. Rounds per second depend on the machine, its
+ * load and what the JIT did so far: they are timed once every scenario ran,
+ * as the median of several runs after a warm up, and even so move by tens of
+ * percent between runs on a shared machine. They are therefore only reported,
+ * unless a speed tolerance is given, and should then be recorded on the
+ * machine that runs the checks.
+ * <p>
+ * <code>record</code> writes the baselines file, <code>check</code> compares
+ * with it and exits with status 1 if a metric got worse by more than the
+ * tolerance (relative; p99 latency may also grow by one round).
+ * <p>
+ * Usage: <code>ScenarioSuite [check|record] [baselines file] [rounds]
+ * [tolerance] [speed tolerance]</code>.
+ */
+public class ScenarioSuite {
+    private static final int[] GRIDS = {4, 16, 64, 256};
+    private static final String[] LOADS = {"low", "medium", "saturated"};
+    // offered entries per entry the grid admits, 0 meaning a request every round
+    private static final double[] UTILIZATIONS = {0.2, 0.5, 0};
+    // critical session plus request, yes and release of the next entry
+    private static final int ROUNDS_PER_ENTRY = 7;
+    private static final double DELAY_PROBABILITY = 0.5;
+    private static final int DELAY = 3;
+    private static final long SEED = 1;
+    private static final long WARM_UP_NANOS = 300_000_000;
+    private static final long SAMPLE_NANOS = 100_000_000;
+    private static final int SAMPLES = 7;
+
+    private static final String[] METRICS = {"messages/entry", "entries/1000", "p99", "rounds/s"};
+    // whether a higher value of each metric is better
+    private static final boolean[] HIGHER_IS_BETTER = {false, true, false, true};
+
+    private static class Scenario {
+        final String name;
+        final int nodes;
+        final double probability;
+        final double delayProbability;
+
+        Scenario(int nodes, int load, boolean delayed) {
+            this.name = "grid" + nodes + "-" + LOADS[load] + "-" + (delayed ? "delay" : "nodelay");
+            this.nodes = nodes;
+            this.probability = UTILIZATIONS[load] > 0 ? UTILIZATIONS[load] / (nodes * ROUNDS_PER_ENTRY) : 1.0;
+            this.delayProbability = delayed ? DELAY_PROBABILITY : 0;
+        }
+
+        // every metric but the speed, filled in by measureSpeed
+        double[] run(int rounds) {
+            CompactSimulation simulation = new CompactSimulation(nodes, probability, delayProbability, DELAY, SEED);
+            simulation.run(rounds);
+
+            return new double[]{
+                    simulation.getMessagesPerEntry(),
+                    simulation.getEntries() * 1000.0 / rounds,
+                    simulation.getLatencyPercentile(0.99),
+                    0
+            };
+        }
+
+        double measureSpeed(int rounds) {
+            // runs of a few milliseconds are too noisy: after a warm up, time repeated runs together, and
+            // take the median of several such samples so that a GC or JIT pause does not move it
+            repeat(rounds, WARM_UP_NANOS);
+            double[] samples = new double[SAMPLES];
+            for (int i = 0; i < SAMPLES; i++) {
+                samples[i] = repeat(rounds, SAMPLE_NANOS);
+            }
+            Arrays.sort(samples);
+            return samples[SAMPLES / 2];
+        }
+
+        private double repeat(int rounds, long nanos) {
+            long start = System.nanoTime();
+            long total = 0;
+            long elapsed;
+            do {
+                new CompactSimulation(nodes, probability, delayProbability, DELAY, SEED).run(rounds);
+                total += rounds;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < nanos);
+            return total / (elapsed / 1e9);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean record = args.length > 0 && args[0].equalsIgnoreCase("record");
+        Path file = Paths.get(args.length > 1 ? args[1] : "baselines.txt");
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        double tolerance = args.length > 3 ? Double.parseDouble(args[3]) : 0.05;
+        // negative: speed is reported, not checked
+        double speedTolerance = args.length > 4 ? Double.parseDouble(args[4]) : -1;
+
+        List<Scenario> scenarios = scenarios();
+        Map<String, double[]> results = new HashMap<>();
+        for (Scenario scenario : scenarios) {
+            results.put(scenario.name, scenario.run(rounds));
+        }
+        // timed once every scenario ran, so the code is compiled the same way for all of them
+        for (Scenario scenario : scenarios) {
+            results.get(scenario.name)[METRICS.length - 1] = scenario.measureSpeed(rounds);
+        }
+
+        if (record) {
+            write(file, rounds, scenarios, results);
+            System.out.println("Baselines of " + scenarios.size() + " scenarios written to " + file);
+            return;
+        }
+
+        Map<String, double[]> baselines = read(file, rounds);
+        int regressions = 0;
+        System.out.println(String.format("%-24s %-15s %12s %12s %8s", "scenario", "metric", "baseline", "now", "change"));
+
+        for (Scenario scenario : scenarios) {
+            double[] baseline = baselines.get(scenario.name);
+            double[] now = results.get(scenario.name);
+            if (baseline == null) {
+                System.out.println(String.format("%-24s no baseline", scenario.name));
+                regressions++;
+                continue;
+            }
+
+            for (int m = 0; m < METRICS.length; m++) {
+                double allowed = m == METRICS.length - 1 ? speedTolerance : tolerance;
+                boolean regressed = allowed >= 0 && regressed(m, baseline[m], now[m], allowed);
+                double change = baseline[m] == 0 ? 0 : (now[m] - baseline[m]) / baseline[m];
+                System.out.println(String.format(Locale.ROOT, "%-24s %-15s %12.3f %12.3f %+7.1f%%%s", scenario.name,
+                        METRICS[m], baseline[m], now[m], 100 * change, regressed ? "  REGRESSION" : ""));
+                if (regressed) {
+                    regressions++;
+                }
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.println(regressions + " regressions");
+            System.exit(1);
+        }
+        System.out.println("No regressions in " + scenarios.size() + " scenarios");
+    }
+
+    private static boolean regressed(int metric, double baseline, double now, double tolerance) {
+        if (HIGHER_IS_BETTER[metric]) {
+            return now < baseline * (1 - tolerance);
+        }
+        double slack = baseline * tolerance;
+        if (METRICS[metric].equals("p99")) {
+            slack = Math.max(slack, 1);
+        }
+        return now > baseline + slack;
+    }
+
+    private static List<Scenario> scenarios() {
+        List<Scenario> scenarios = new ArrayList<>();
+        for (int nodes : GRIDS) {
+            for (int load = 0; load < LOADS.length; load++) {
+                scenarios.add(new Scenario(nodes, load, false));
+                scenarios.add(new Scenario(nodes, load, true));
+            }
+        }
+        return scenarios;
+    }
+
+    private static void write(Path file, int rounds, List<Scenario> scenarios, Map<String, double[]> results)
+            throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println("# ScenarioSuite baselines, seed " + SEED + ", delay " + DELAY_PROBABILITY + "/" + DELAY);
+            out.println("rounds " + rounds);
+            out.println("# scenario " + String.join(" ", METRICS));
+            for (Scenario scenario : scenarios) {
+                double[] values = results.get(scenario.name);
+                out.println(String.format(Locale.ROOT, "%s %.4f %.4f %.0f %.0f", scenario.name, values[0], values[1],
+                        values[2], values[3]));
+            }
+        }
+    }
+
+    private static Map<String, double[]> read(Path file, int rounds) throws IOException {
+        Map<String, double[]> baselines = new HashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields[0].isEmpty() || fields[0].startsWith("#")) {
+                continue;
+            }
+            if (fields[0].equals("rounds")) {
+                if (Integer.parseInt(fields[1]) != rounds) {
+                    throw new IllegalArgumentException("baselines of " + file + " were recorded with " + fields[1]
+                            + " rounds, not " + rounds);
+                }
+                continue;
+            }
+
+            double[] values = new double[METRICS.length];
+            for (int m = 0; m < METRICS.length; m++) {
+                values[m] = Double.parseDouble(fields[m + 1]);
+            }
+            baselines.put(fields[0], values);
+        }
+        return baselines;
+    }
+}
@@ -0,0 +1,329 @@
+package projects.sanders.replay;
+
+import projects.sanders.nodes.messages.MessageTypes;
+import projects.sanders.protocol.MessageCodec;
+import sinalgo.configuration.Configuration;
+import sinalgo.exception.CorruptConfigurationEntryException;
+import sinalgo.exception.SinalgoFatalException;
+import sinalgo.nodes.Node;
+import sinalgo.nodes.messages.Message;
+import sinalgo.runtime.Global;
+import sinalgo.tools.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Records every random decision of a run, so that a failing schedule can be
+ * replayed exactly, whatever the seed.
+ * <p>
+ * With <code>ExecutionLog/Mode="record"</code> each decision is appended to
+ * <code>ExecutionLog/File</code>: the delivery time of every message (sender,
+ * receiver, kind, timestamp, grant, delay) and every positive request, loss,
+ * duplication, crash and recovery decision. With <code>Mode="replay"</code>
+ * the same places read the log instead of drawing random numbers.
+ * <p>
+ * Records are written in the order the decisions are taken, so replay only
+ * needs to look at the next record: a yes/no decision is positive exactly
+ * when the next record is that decision. If the run takes another path the
+ * replay stops with the index of the first record that does not match.
+ * <p>
+ * Each record is a type byte, the round delta and the node as varints. Records
+ * about a message hold the receiver instead, followed by the message in the
+ * format of {@link MessageCodec} (which carries the sender), and deliveries end
+ * with the delay. Most records take 6 to 10 bytes and are encoded straight
+ * into a reused buffer that is written to the file when full.
+ */
+public class ExecutionLog {
+    public static final byte DELIVERY = 1;
+    public static final byte REQUEST = 2;
+    public static final byte LOSS = 3;
+    public static final byte DUPLICATE = 4;
+    public static final byte CRASH = 5;
+    public static final byte RECOVERY = 6;
+
+    private static final int MAGIC = 0x534e4452; // "SNDR"
+    private static final int VERSION = 3;
+    private static final int FLUSH_INTERVAL = 1000;
+    private static final int MAX_RECORD_SIZE = 1 + 10 + 10 + MessageCodec.MAX_FRAME_SIZE + 10 + 8;
+
+    private enum Mode { OFF, RECORD, REPLAY }
+
+    private static Mode mode = Mode.OFF;
+    private static FileChannel channel;
+    private static final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    private static final MessageCodec.Frame frame = new MessageCodec.Frame();
+    private static boolean endOfFile;
+    private static long lastRound;
+    private static long recordIndex;
+
+    // next record while replaying, null when the log is over
+    private static Record next;
+
+    private static Logging logger = Logging.getLogger("logfile.txt");
+
+    private static class Record {
+        byte type;
+        long round;
+        long first;
+        long second;
+        byte kind;
+        int timestamp;
+        int grant;
+        double delay;
+    }
+
+    public static void reset() {
+        close();
+        mode = Mode.OFF;
+        lastRound = 0;
+        recordIndex = 0;
+        next = null;
+
+        String modeName = "off";
+        String file = "logs/execution.log";
+        try {
+            if (Configuration.hasParameter("ExecutionLog/Mode")) {
+                modeName = Configuration.getStringParameter("ExecutionLog/Mode").trim().toLowerCase();
+            }
+            if (Configuration.hasParameter("ExecutionLog/File")) {
+                file = Configuration.getStringParameter("ExecutionLog/File").trim();
+            }
+        } catch (CorruptConfigurationEntryException e) {
+            throw new SinalgoFatalException("Invalid ExecutionLog entry in Config.xml: " + e.getMessage());
+        }
+
+        try {
+            if (modeName.equals("record")) {
+                File f = new File(file);
+                if (f.getParentFile() != null) {
+                    f.getParentFile().mkdirs();
+                }
+                channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                buffer.clear();
+                buffer.putInt(MAGIC).putInt(VERSION);
+                mode = Mode.RECORD;
+            } else if (modeName.equals("replay")) {
+                channel = FileChannel.open(new File(file).toPath(), StandardOpenOption.READ);
+                endOfFile = false;
+                buffer.clear().limit(0);
+                fill();
+                if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    throw new IOException("not an execution log of this version");
+                }
+                mode = Mode.REPLAY;
+                next = read();
+            } else if (!modeName.equals("off")) {
+                throw new SinalgoFatalException("ExecutionLog/Mode must be off, record or replay");
+            }
+        } catch (IOException e) {
+            throw new SinalgoFatalException("Could not open execution log " + file + ": " + e.getMessage());
+        }
+    }
+
+    public static boolean isReplaying() {
+        return mode == Mode.REPLAY;
+    }
+
+    /**
+     * Delivery time of a message: drawn by <code>draw</code> (and recorded) or
+     * read from the log.
+     */
+    public static double delay(Node sender, Node receiver, Message msg, DoubleSupplier draw) {
+        if (mode == Mode.REPLAY) {
+            Record r = next;
+            if (!matches(r, DELIVERY, sender, receiver, msg)) {
+                diverged("delivery of " + describe(sender, receiver, msg));
+            }
+            next = read();
+            return r.delay;
+        }
+
+        double delay = draw.getAsDouble();
+        if (mode == Mode.RECORD) {
+            write(DELIVERY, sender, receiver, msg, delay);
+        }
+        return delay;
+    }
+
+    /**
+     * A yes/no decision of the given type: drawn by <code>draw</code> (and
+     * recorded when positive) or read from the log. <code>other</code> and
+     * <code>msg</code> may be null when the decision is about a single node.
+     */
+    public static boolean decide(byte type, Node node, Node other, Message msg, BooleanSupplier draw) {
+        if (mode == Mode.REPLAY) {
+            if (matches(next, type, node, other, msg)) {
+                next = read();
+                return true;
+            }
+            return false;
+        }
+
+        boolean decision = draw.getAsBoolean();
+        if (decision && mode == Mode.RECORD) {
+            write(type, node, other, msg, 0);
+        }
+        return decision;
+    }
+
+    public static void postRound() {
+        if (mode == Mode.RECORD && (long) Global.getCurrentTime() % FLUSH_INTERVAL == 0) {
+            try {
+                flush();
+            } catch (IOException e) {
+                logger.logln("Could not flush execution log: " + e.getMessage());
+            }
+        }
+    }
+
+    public static void close() {
+        try {
+            if (channel != null) {
+                if (mode == Mode.RECORD) {
+                    flush();
+                }
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.logln("Could not close execution log: " + e.getMessage());
+        }
+        channel = null;
+    }
+
+    private static void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // keeps at least a whole record in the buffer while the file has one
+    private static void fill() throws IOException {
+        if (buffer.remaining() >= MAX_RECORD_SIZE || endOfFile) {
+            return;
+        }
+
+        buffer.compact();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                endOfFile = true;
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void write(byte type, Node first, Node second, Message msg, double delay) {
+        long round = (long) Global.getCurrentTime();
+
+        try {
+            if (buffer.remaining() < MAX_RECORD_SIZE) {
+                flush();
+            }
+        } catch (IOException e) {
+            throw new SinalgoFatalException("Could not write execution log: " + e.getMessage());
+        }
+
+        buffer.put(type);
+        MessageCodec.putVarLong(buffer, round - lastRound);
+        if (hasSecondNode(type)) {
+            MessageCodec.putVarLong(buffer, second.getID());
+            MessageTypes.encode(buffer, first, msg);
+        } else {
+            MessageCodec.putVarLong(buffer, first.getID());
+        }
+        if (type == DELIVERY) {
+            // delays are whole rounds in almost every model
+            if (delay >= 0 && delay == Math.rint(delay)) {
+                MessageCodec.putVarLong(buffer, (long) delay << 1);
+            } else {
+                MessageCodec.putVarLong(buffer, 1);
+                buffer.putDouble(delay);
+            }
+        }
+
+        lastRound = round;
+        recordIndex++;
+    }
+
+    // single node decisions carry no second node and no message
+    private static boolean hasSecondNode(byte type) {
+        return type == DELIVERY || type == LOSS || type == DUPLICATE;
+    }
+
+    private static Record read() {
+        try {
+            fill();
+            if (!buffer.hasRemaining()) {
+                logger.logln("Execution log is over at round " + (long) Global.getCurrentTime()
+                        + ", continuing with random decisions");
+                close();
+                mode = Mode.OFF;
+                return null;
+            }
+
+            Record r = new Record();
+            r.type = buffer.get();
+            r.round = lastRound + readVarLong();
+            if (hasSecondNode(r.type)) {
+                r.second = readVarLong();
+                if (!MessageCodec.decode(buffer, frame)) {
+                    throw new IOException("truncated record");
+                }
+                r.first = frame.sender;
+                r.kind = frame.type;
+                r.timestamp = frame.timestamp;
+                r.grant = frame.grant;
+            } else {
+                r.first = readVarLong();
+            }
+            if (r.type == DELIVERY) {
+                long d = readVarLong();
+                r.delay = (d & 1) == 0 ? (double) (d >>> 1) : buffer.getDouble();
+            }
+
+            lastRound = r.round;
+            recordIndex++;
+            return r;
+        } catch (IOException | RuntimeException e) {
+            throw new SinalgoFatalException("Could not read execution log: " + e.getMessage());
+        }
+    }
+
+    private static boolean matches(Record r, byte type, Node first, Node second, Message msg) {
+        if (r == null || r.type != type || r.round != (long) Global.getCurrentTime() || r.first != first.getID()) {
+            return false;
+        }
+        if (!hasSecondNode(type)) {
+            return true;
+        }
+
+        return r.second == second.getID() && r.kind == MessageTypes.typeOf(msg)
+                && r.timestamp == MessageTypes.timestampOf(msg) && r.grant == MessageTypes.grantOf(msg);
+    }
+
+    private static void diverged(String what) {
+        throw new SinalgoFatalException("Replay diverged at record " + recordIndex + ", round "
+                + (long) Global.getCurrentTime() + ": the run did " + what);
+    }
+
+    private static String describe(Node sender, Node receiver, Message msg) {
+        return MessageTypes.nameOf(MessageTypes.typeOf(msg)) + " " + sender.getID() + " -> " + receiver.getID();
+    }
+
+    private static long readVarLong() throws IOException {
+        long v = MessageCodec.getVarLong(buffer);
+        if (v < 0) {
+            throw new IOException("truncated record");
+        }
+        return v;
+    }
+}
@@ -0,0 +1,193 @@
+package projects.sanders.checkpoint;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import projects.sanders.SimulationRandom;
+import projects.sanders.faults.FaultInjector;
+import projects.sanders.metrics.ProtocolStatistics;
+import projects.sanders.models.connectivityModels.Coterie;
+import projects.sanders.models.connectivityModels.CoterieLayout;
+import projects.sanders.monitor.ProtocolMonitor;
+import projects.sanders.nodes.nodeImplementations.SandersNode;
+import sinalgo.exception.CorruptConfigurationEntryException;
+import sinalgo.nodes.Node;
+import sinalgo.nodes.messages.Message;
+import sinalgo.runtime.Global;
+import sinalgo.runtime.SinalgoRuntime;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CheckpointTest {
+    private static final int NODES = 16;
+    private static final int ROUNDS_BEFORE = 60;
+    private static final int ROUNDS_AFTER = 60;
+    private static final long SEED = 7;
+    private static final double REQUEST_PROBABILITY = 0.1;
+    // as RandomFixDelayTime
+    private static final double DELAY_PROBABILITY = 0.3;
+    private static final double DELAY = 3;
+
+    private final List<File> files = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        SandersNode.setNetwork(null);
+        InFlightMessages.reset(false);
+        SinalgoRuntime.clearAllNodes();
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void resumedRunMatchesAnUninterruptedOne() throws Exception {
+        Simulation uninterrupted = new Simulation();
+        uninterrupted.run(1, ROUNDS_BEFORE + ROUNDS_AFTER);
+        long expectedRandom = SimulationRandom.getState();
+        List<Long> expectedSlots = slots();
+        byte[] expected = save();
+
+        Simulation first = new Simulation();
+        first.run(1, ROUNDS_BEFORE);
+        // otherwise the checkpoint would not cover much
+        assertTrue(ProtocolStatistics.getEntries() > 0);
+        assertFalse(InFlightMessages.pendingAfter(ROUNDS_BEFORE).isEmpty());
+        File checkpoint = temporaryFile();
+        Checkpoint.save(checkpoint);
+
+        Simulation resumed = new Simulation();
+        resumed.restoreFrom = checkpoint;
+        resumed.run(ROUNDS_BEFORE + 1, ROUNDS_BEFORE + ROUNDS_AFTER);
+
+        assertEquals(expectedRandom, SimulationRandom.getState());
+        assertEquals(expectedSlots, slots());
+        assertArrayEquals(expected, save(), "resumed run ended in another state");
+    }
+
+    private static List<Long> slots() {
+        CoterieLayout layout = CoterieLayout.get();
+        List<Long> ids = new ArrayList<>();
+        for (int slot = 0; slot < layout.size(); slot++) {
+            ids.add(layout.nodeAt(slot).getID());
+        }
+        return ids;
+    }
+
+    private byte[] save() throws IOException {
+        File file = temporaryFile();
+        Checkpoint.save(file);
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private File temporaryFile() throws IOException {
+        File file = File.createTempFile("checkpoint", ".bin");
+        files.add(file);
+        return file;
+    }
+
+    private static class Packet {
+        SandersNode origin;
+        Node destination;
+        Message msg;
+        double arrivingTime;
+    }
+
+    /**
+     * The synchronous rounds of the framework on a fresh set of nodes: every
+     * node in turn runs its pre step, its due critical session timer, the
+     * messages that arrived by then and its post step.
+     */
+    private static class Simulation implements SandersNode.Network {
+        final List<SandersNode> nodes = new ArrayList<>();
+        final Coterie connectivity;
+        // in the order they were sent, which is the order they are received in
+        final List<Packet> inFlight = new ArrayList<>();
+        File restoreFrom;
+
+        Simulation() throws CorruptConfigurationEntryException {
+            SinalgoRuntime.clearAllNodes();
+            Global.setCurrentTime(0);
+            SimulationRandom.setState(SEED);
+            CoterieLayout.reset();
+            FaultInjector.reset();
+            ProtocolStatistics.reset();
+            ProtocolMonitor.reset();
+            Checkpoint.reset();
+            InFlightMessages.reset(true);
+            SandersNode.setNetwork(this);
+            SandersNode.setCriticalSessionProbability(REQUEST_PROBABILITY);
+
+            for (int i = 0; i < NODES; i++) {
+                SandersNode n = new SandersNode();
+                SinalgoRuntime.addNode(n);
+                n.init();
+                nodes.add(n);
+            }
+            connectivity = new Coterie();
+        }
+
+        void run(int from, int to) throws IOException {
+            for (int round = from; round <= to; round++) {
+                Global.setCurrentTime(round);
+                if (round == from && restoreFrom != null) {
+                    Checkpoint.restore(restoreFrom);
+                }
+                FaultInjector.preRound();
+
+                for (SandersNode n : nodes) {
+                    connectivity.updateConnections(n);
+                }
+                for (SandersNode n : nodes) {
+                    step(n, round);
+                }
+
+                FaultInjector.postRound();
+                ProtocolMonitor.postRound();
+            }
+        }
+
+        private void step(SandersNode n, double now) {
+            n.preStep();
+            if (n.isInCs() && n.getCsExitAt() <= now) {
+                n.exitCS();
+            }
+
+            List<Packet> arrived = new ArrayList<>();
+            for (Iterator<Packet> it = inFlight.iterator(); it.hasNext(); ) {
+                Packet p = it.next();
+                if (p.destination == n && p.arrivingTime <= now) {
+                    arrived.add(p);
+                    it.remove();
+                }
+            }
+            for (Packet p : arrived) {
+                n.receive(p.origin, p.msg);
+            }
+
+            n.postStep();
+        }
+
+        @Override
+        public void send(SandersNode origin, Node target, Message msg, boolean direct) {
+            Packet p = new Packet();
+            p.origin = origin;
+            p.destination = target;
+            p.msg = msg;
+            p.arrivingTime = Global.getCurrentTime() + (InFlightMessages.getForcedDelay() >= 0
+                    ? InFlightMessages.getForcedDelay()
+                    : SimulationRandom.nextDouble() <= DELAY_PROBABILITY ? DELAY : 1);
+            InFlightMessages.sent(origin, target, msg, p.arrivingTime);
+            inFlight.add(p);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package projects.sanders.lock;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LockServiceTest {
+    private static final long WAIT_SECONDS = 10;
+
+    @Test
+    public void interruptedLockDoesNotKeepTheVotes() throws Exception {
+        LockService service = new LockService(9);
+        DistributedLock owner = service.lock(1);
+        owner.lock();
+
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        CountDownLatch started = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            started.countDown();
+            try {
+                service.lock(2).lock();
+            } catch (Throwable t) {
+                thrown.set(t);
+            }
+        });
+        waiter.start();
+        started.await();
+
+        // let the request reach its quorum, then give up on it
+        assertFalse(service.lock(3).tryLock(200, TimeUnit.MILLISECONDS));
+        waiter.interrupt();
+        waiter.join(TimeUnit.SECONDS.toMillis(WAIT_SECONDS));
+        assertFalse(waiter.isAlive());
+        assertTrue(thrown.get() instanceof InterruptedException);
+
+        owner.unlock();
+
+        DistributedLock other = service.lock(4);
+        assertTrue(other.tryLock(WAIT_SECONDS, TimeUnit.SECONDS));
+        other.unlock();
+
+        DistributedLock interrupted = service.lock(2);
+        assertTrue(interrupted.tryLock(WAIT_SECONDS, TimeUnit.SECONDS));
+        interrupted.unlock();
+    }
+}
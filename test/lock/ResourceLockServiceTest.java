@@ -0,0 +1,136 @@
+package projects.sanders.lock;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResourceLockServiceTest {
+    private static final long WAIT_SECONDS = 20;
+    private static final int PARTICIPANTS = 9;
+    private static final int RESOURCES = 6;
+    private static final int ROUNDS = 200;
+
+    @Test
+    public void overlappingSetsAreNeverHeldTogether() throws Exception {
+        ResourceLockService service = new ResourceLockService(PARTICIPANTS);
+        AtomicInteger[] holders = holders();
+        AtomicReference<String> violation = new AtomicReference<>();
+
+        // participant p takes resources p, p + 1 and p + 2 (mod RESOURCES), so every set overlaps others
+        runAll(PARTICIPANTS, p -> {
+            ResourceLock lock = service.lock(p);
+            int[] set = {p % RESOURCES, (p + 1) % RESOURCES, (p + 2) % RESOURCES};
+            for (int i = 0; i < ROUNDS; i++) {
+                lock.lock(set);
+                hold(holders, set, p, violation);
+                lock.unlock();
+            }
+        });
+
+        assertEquals(null, violation.get());
+    }
+
+    @Test
+    public void setsListedInAnyOrderDoNotDeadlock() throws Exception {
+        ResourceLockService service = new ResourceLockService(PARTICIPANTS);
+        AtomicInteger[] holders = holders();
+        AtomicReference<String> violation = new AtomicReference<>();
+
+        // dining philosophers: neighbours share a resource and half of them list it first,
+        // which deadlocks locks taken one by one; requests are ordered by timestamp instead
+        runAll(RESOURCES, p -> {
+            ResourceLock lock = service.lock(p);
+            int left = p - 1;
+            int right = p % RESOURCES;
+            int[] set = p % 2 == 0 ? new int[]{left, right} : new int[]{right, left};
+            for (int i = 0; i < ROUNDS; i++) {
+                lock.lock(set);
+                hold(holders, set, p, violation);
+                lock.unlock();
+            }
+        });
+
+        assertEquals(null, violation.get());
+    }
+
+    @Test
+    public void releasedResourceIsFreeWhileAnotherIsStillHeld() throws Exception {
+        ResourceLockService service = new ResourceLockService(PARTICIPANTS);
+        ResourceLock first = service.lock(1);
+        ResourceLock second = service.lock(2);
+        first.lock(1);
+        second.lock(2);
+
+        first.unlock();
+
+        ResourceLock next = service.lock(3);
+        assertTrue(next.tryLock(WAIT_SECONDS, TimeUnit.SECONDS, 1));
+        ResourceLock blocked = service.lock(4);
+        assertFalse(blocked.tryLock(200, TimeUnit.MILLISECONDS, 2, 3));
+
+        second.unlock();
+        ResourceLock after = service.lock(5);
+        assertTrue(after.tryLock(WAIT_SECONDS, TimeUnit.SECONDS, 2, 3));
+        after.unlock();
+        next.unlock();
+    }
+
+    private interface Body {
+        void run(int participant) throws Exception;
+    }
+
+    // runs participants 1 to count on a thread each and fails if one of them throws or does not finish
+    private static void runAll(int count, Body body) throws Exception {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 1; p <= count; p++) {
+            int participant = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    body.run(participant);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+        for (Thread thread : threads) {
+            thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            assertFalse(thread.isAlive(), "participants still waiting: deadlock");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    private static AtomicInteger[] holders() {
+        AtomicInteger[] holders = new AtomicInteger[RESOURCES];
+        for (int r = 0; r < RESOURCES; r++) {
+            holders[r] = new AtomicInteger();
+        }
+        return holders;
+    }
+
+    private static void hold(AtomicInteger[] holders, int[] set, int participant, AtomicReference<String> violation) {
+        for (int r : set) {
+            if (holders[r].incrementAndGet() > 1) {
+                violation.compareAndSet(null, "resource " + r + " held twice, participant " + participant);
+            }
+        }
+        Thread.yield();
+        for (int r : set) {
+            holders[r].decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package projects.sanders.nodes.nodeImplementations;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import projects.sanders.faults.FaultInjector;
+import projects.sanders.monitor.ProtocolMonitor;
+import sinalgo.runtime.Global;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class SandersNodeTest {
+    private static final int VOTE_TIMEOUT = 10;
+    // fire time of the timer started with the vote
+    private static final double GRANT_TIMER_AT = 3;
+
+    @BeforeEach
+    public void setUp() {
+        ProtocolMonitor.reset();
+        FaultInjector.reset();
+        FaultInjector.setTimeouts(0, VOTE_TIMEOUT);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        FaultInjector.reset();
+    }
+
+    @Test
+    public void voteTimeoutDuringCrashIsStartedAgainOnRecovery() {
+        SandersNode arbiter = node();
+        SandersNode candidate = node();
+        grant(arbiter, candidate);
+
+        candidate.crash();
+        arbiter.crash();
+        // the timer fires while the arbiter is down and is dropped
+        arbiter.voteTimeout(arbiter.getProtocol().getGrantSeq());
+        arbiter.recover();
+
+        assertEquals(Global.getCurrentTime() + VOTE_TIMEOUT, arbiter.voteTimeoutAt, 0);
+
+        // when it fires, the vote held by the dead candidate is taken back
+        arbiter.voteTimeout(arbiter.getProtocol().getGrantSeq());
+        assertFalse(arbiter.isHasVoted());
+    }
+
+    @Test
+    public void pendingVoteTimeoutIsNotStartedTwice() {
+        SandersNode arbiter = node();
+        SandersNode candidate = node();
+        grant(arbiter, candidate);
+
+        arbiter.crash();
+        arbiter.recover();
+
+        assertEquals(GRANT_TIMER_AT, arbiter.voteTimeoutAt, 0);
+    }
+
+    private static SandersNode node() {
+        SandersNode n = new SandersNode();
+        n.init();
+        return n;
+    }
+
+    private static void grant(SandersNode arbiter, SandersNode candidate) {
+        arbiter.getProtocol().restoreVote(true, false, candidate, 0, 0, 1, Collections.emptyList());
+        arbiter.voteTimeoutAt = GRANT_TIMER_AT;
+    }
+}
@@ -0,0 +1,85 @@
+package projects.sanders.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class IntMapTest {
+    // capacity of a new map, which holds up to 7 entries before growing
+    private static final int MASK = 15;
+
+    @Test
+    public void removeFromAWrappedChainKeepsTheRestReachable() {
+        // slot 15 holds a key of the last slot, slots 0 and 1 keys of slot 0, and the other keys
+        // of the last slot wrap past them to slots 2 and 3, followed by a key of slot 1 in slot 4
+        List<Integer> last = keysWithHome(MASK, 3);
+        List<Integer> first = keysWithHome(0, 2);
+        List<Integer> second = keysWithHome(1, 1);
+        List<Integer> chain = new ArrayList<>();
+        chain.add(last.get(0));
+        chain.addAll(first);
+        chain.add(last.get(1));
+        chain.add(last.get(2));
+        chain.addAll(second);
+
+        IntMap<String> map = new IntMap<>();
+        for (int key : chain) {
+            map.put(key, "v" + key);
+        }
+
+        // the head of the chain, whose hole only the wrapped keys of the last slot may fill,
+        // then an entry past the wrap, then one that wrapped
+        for (int removed : new int[]{last.get(0), first.get(0), last.get(2)}) {
+            map.remove(removed);
+            chain.remove(Integer.valueOf(removed));
+
+            assertEquals(null, map.get(removed));
+            assertEquals(chain.size(), map.size());
+            for (int key : chain) {
+                assertEquals("v" + key, map.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void matchesAHashMapUnderPutsAndRemoves() {
+        IntMap<Integer> map = new IntMap<>();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(1);
+
+        // few keys, so chains collide and wrap while the map grows and shrinks
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(40) - 20;
+            if (random.nextBoolean()) {
+                map.put(key, i);
+                expected.put(key, i);
+            } else {
+                map.remove(key);
+                expected.remove(key);
+            }
+
+            if (i % 97 == 0) {
+                assertEquals(expected.size(), map.size());
+                for (int k = -20; k < 20; k++) {
+                    assertEquals(expected.get(k), map.get(k));
+                }
+            }
+        }
+    }
+
+    private static List<Integer> keysWithHome(int home, int count) {
+        List<Integer> keys = new ArrayList<>();
+        for (int key = 1; keys.size() < count; key++) {
+            if (IntMap.slot(key, MASK) == home) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,121 @@
+package projects.sanders.protocol;
+
+import org.junit.jupiter.api.Test;
+import projects.sanders.nodes.messages.MessageTypes;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MessageCodecTest {
+    private static final byte[] TYPES = {MessageTypes.YES, MessageTypes.INQ, MessageTypes.REQUEST,
+            MessageTypes.RELINQUISH, MessageTypes.RELEASE};
+    // one and two byte varint boundaries, the largest values and negatives, which take five bytes
+    private static final int[] VALUES = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+    private static final long[] SENDERS = {0, 1, 127, 128, Integer.MAX_VALUE, Long.MAX_VALUE};
+
+    @Test
+    public void everyTypeAndEdgeValueRoundTrips() {
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.MAX_FRAME_SIZE);
+        MessageCodec.Frame frame = new MessageCodec.Frame();
+
+        for (byte type : TYPES) {
+            for (long sender : SENDERS) {
+                for (int timestamp : VALUES) {
+                    for (int grant : VALUES) {
+                        buffer.clear();
+                        MessageCodec.encode(buffer, type, sender, timestamp, grant);
+                        buffer.flip();
+
+                        assertTrue(MessageCodec.decode(buffer, frame));
+                        assertEquals(type, frame.type);
+                        assertEquals(sender, frame.sender);
+                        assertEquals(timestamp, frame.timestamp);
+                        assertEquals(grant, frame.grant);
+                        assertFalse(buffer.hasRemaining());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void framesBackToBackDecodeInOrder() {
+        ByteBuffer buffer = ByteBuffer.allocate(TYPES.length * MessageCodec.MAX_FRAME_SIZE);
+        for (int i = 0; i < TYPES.length; i++) {
+            MessageCodec.encode(buffer, TYPES[i], i + 1, VALUES[i], VALUES[VALUES.length - 1 - i]);
+        }
+        buffer.flip();
+
+        MessageCodec.Frame frame = new MessageCodec.Frame();
+        for (int i = 0; i < TYPES.length; i++) {
+            assertTrue(MessageCodec.decode(buffer, frame));
+            assertEquals(TYPES[i], frame.type);
+            assertEquals(i + 1, frame.sender);
+            assertEquals(VALUES[i], frame.timestamp);
+            assertEquals(VALUES[VALUES.length - 1 - i], frame.grant);
+        }
+        assertFalse(MessageCodec.decode(buffer, frame));
+    }
+
+    @Test
+    public void truncatedFrameIsLeftInTheBuffer() {
+        ByteBuffer full = ByteBuffer.allocate(MessageCodec.MAX_FRAME_SIZE);
+        MessageCodec.encode(full, MessageTypes.REQUEST, Long.MAX_VALUE, Integer.MIN_VALUE, -1);
+        full.flip();
+        assertEquals(MessageCodec.MAX_FRAME_SIZE, full.remaining());
+
+        MessageCodec.Frame frame = new MessageCodec.Frame();
+        for (int length = 0; length < full.limit(); length++) {
+            ByteBuffer prefix = full.duplicate();
+            prefix.limit(length);
+
+            assertFalse(MessageCodec.decode(prefix, frame));
+            assertEquals(0, prefix.position());
+        }
+
+        // once the rest arrives the same buffer decodes
+        assertTrue(MessageCodec.decode(full, frame));
+        assertEquals(MessageTypes.REQUEST, frame.type);
+        assertEquals(Long.MAX_VALUE, frame.sender);
+        assertEquals(Integer.MIN_VALUE, frame.timestamp);
+        assertEquals(-1, frame.grant);
+    }
+
+    @Test
+    public void varintsHaveTheExpectedLength() {
+        long[] values = {0, 127, 128, 16383, 16384, Integer.MAX_VALUE, 0xFFFFFFFFL, Long.MAX_VALUE, -1};
+        int[] lengths = {1, 1, 2, 2, 3, 5, 5, 9, 10};
+        ByteBuffer buffer = ByteBuffer.allocate(10);
+
+        for (int i = 0; i < values.length; i++) {
+            buffer.clear();
+            MessageCodec.putVarLong(buffer, values[i]);
+            assertEquals(lengths[i], buffer.position());
+
+            buffer.flip();
+            assertEquals(values[i], MessageCodec.getVarLong(buffer));
+        }
+    }
+
+    @Test
+    public void negativeSenderIsRejected() {
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.MAX_FRAME_SIZE);
+        assertThrows(IllegalArgumentException.class,
+                () -> MessageCodec.encode(buffer, MessageTypes.YES, -1, 0, 0));
+    }
+
+    @Test
+    public void overlongVarintIsMalformed() {
+        ByteBuffer buffer = ByteBuffer.allocate(11);
+        for (int i = 0; i < 11; i++) {
+            buffer.put((byte) 0x80);
+        }
+        buffer.flip();
+
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.getVarLong(buffer));
+    }
+}
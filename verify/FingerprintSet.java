@@ -0,0 +1,108 @@
+package projects.sanders.verify;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Visited states of the {@link ModelChecker}: 64 bit fingerprints in an open
+ * addressing table, inserted with compare-and-set so that every exploring
+ * thread shares it without locks. Nothing is ever removed.
+ * <p>
+ * Next to each fingerprint the table keeps the fingerprint of the state it
+ * was first reached from, to rebuild counterexample traces, and the sleep set
+ * of the state as a bit mask over its enabled transitions. Sleep sets start
+ * full and are only ever intersected.
+ */
+class FingerprintSet {
+    private final int mask;
+    private final int capacity;
+    private final AtomicLongArray keys;
+    private final AtomicLongArray sleep;
+    // written once by the thread inserting the key, read after the search
+    private final long[] parents;
+    private final AtomicInteger size = new AtomicInteger();
+
+    FingerprintSet(int maxStates) {
+        int slots = Integer.highestOneBit(Math.max(16, maxStates) * 2 - 1) << 1;
+        mask = slots - 1;
+        capacity = maxStates;
+        keys = new AtomicLongArray(slots);
+        sleep = new AtomicLongArray(slots);
+        parents = new long[slots];
+        for (int i = 0; i < slots; i++) {
+            sleep.set(i, -1L);
+        }
+    }
+
+    /**
+     * Slot of <code>fingerprint</code>, inserting it if needed.
+     *
+     * @return the slot, or <code>-(slot + 1)</code> if this call inserted it
+     * @throws IllegalStateException when the set holds its maximum of states
+     */
+    int add(long fingerprint) {
+        long key = fingerprint == 0 ? 1 : fingerprint;
+        int slot = (int) mix(key) & mask;
+
+        while (true) {
+            long current = keys.get(slot);
+            if (current == key) {
+                return slot;
+            }
+            if (current == 0) {
+                if (size.get() >= capacity) {
+                    throw new IllegalStateException("more than " + capacity + " states");
+                }
+                if (keys.compareAndSet(slot, 0, key)) {
+                    size.incrementAndGet();
+                    return -(slot + 1);
+                }
+                continue;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    int find(long fingerprint) {
+        long key = fingerprint == 0 ? 1 : fingerprint;
+        int slot = (int) mix(key) & mask;
+
+        while (true) {
+            long current = keys.get(slot);
+            if (current == key) {
+                return slot;
+            }
+            if (current == 0) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Intersects the sleep set of the state in <code>slot</code> with
+     * <code>sleeping</code>.
+     *
+     * @return the sleep set before, -1 if the state was never expanded
+     */
+    long intersectSleep(int slot, long sleeping) {
+        return sleep.getAndUpdate(slot, s -> s & sleeping);
+    }
+
+    void setParent(int slot, long parent) {
+        parents[slot] = parent;
+    }
+
+    long getParent(int slot) {
+        return parents[slot];
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    // the fingerprints are hashes already, this only spreads the low bits
+    private static long mix(long key) {
+        return key ^ (key >>> 29) ^ (key >>> 41);
+    }
+}
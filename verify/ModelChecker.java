@@ -0,0 +1,622 @@
+package projects.sanders.verify;
+
+import projects.sanders.nodes.messages.MessageTypes;
+import projects.sanders.priority.PriorityClasses;
+import projects.sanders.protocol.GridQuorum;
+import projects.sanders.protocol.QuorumLayout;
+import projects.sanders.protocol.SandersProtocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Explores every interleaving of {@link SandersProtocol}, which runs the
+ * {@link projects.sanders.protocol.SandersStateMachine} of
+ * {@link projects.sanders.nodes.nodeImplementations.SandersNode}, on a small
+ * grid, where the first <code>requesters</code> participants ask for the
+ * critical session a bounded number of times and the others only vote, and
+ * checks that:
+ * <ul>
+ * <li>at most one participant is in critical session (mutual exclusion)</li>
+ * <li>every state without a possible step has no waiting participant
+ * (deadlock freedom)</li>
+ * </ul>
+ * A step is a participant requesting, releasing, or receiving one message in
+ * flight. Messages may be received in any order, as with the random delays of
+ * the simulation, or in order per pair of participants (<code>fifo</code>),
+ * as in the live runtime. Each request may be in any of the first
+ * <code>classes</code> priority classes, with an aging of one timestamp so
+ * that deadlines, classes and IDs all decide some orders.
+ * <p>
+ * Crashes are not modelled, timeouts are: up to <code>retransmissions</code>
+ * times in all, a participant may also ask again for its missing votes while waiting
+ * (request timeout) or send its vote and inquire again while it has voted
+ * (vote timeout). This duplicates messages as lost and late ones do in the
+ * simulation, and reaches the handling of retransmitted requests and of
+ * inquires for votes already given back.
+ * <p>
+ * States are the {@link SandersProtocol#getState} of each participant, the
+ * requests it has left, the retransmissions left and the sorted messages in
+ * flight. Only a 64 bit fingerprint of each is kept, in a
+ * {@link FingerprintSet} shared by all threads, so two states may collide with a probability of about
+ * states^2 / 2^65. The search is breadth first, one level at a time split
+ * between the threads, which also makes counterexamples shortest.
+ * <p>
+ * Steps of different participants commute: each only changes its own
+ * participant and adds messages, and retransmissions also take one from a
+ * shared count, which gives the same count in either order. Sleep sets use this to skip interleavings
+ * that only reorder such steps, without losing any reachable state, so both
+ * properties are still checked on every state.
+ * <p>
+ * The number of states grows quickly with the requests in the system: all
+ * interleavings of 4 nodes asking once each, in one class and without
+ * retransmissions, are about 230 thousand states, and the defaults (3 of 4
+ * nodes asking once, 2 classes, 1 retransmission) about 6.5 million, so on
+ * larger grids only some of the nodes should ask. When the search
+ * reaches <code>max states</code> it stops and reports the depth up to
+ * which every interleaving was checked.
+ * <p>
+ * Usage: <code>ModelChecker [nodes] [requests per node] [requesters]
+ * [any|fifo] [reduction on|off] [threads] [max states] [classes]
+ * [retransmissions]</code>.
+ */
+public class ModelChecker {
+    // local steps, next to the message types
+    private static final int REQUEST_STEP = 6;
+    private static final int RELEASE_STEP = 7;
+    private static final int RETRANSMIT_REQUEST_STEP = 8;
+    private static final int RETRANSMIT_VOTE_STEP = 9;
+    private static final int AGING = 1;
+    // entering shows in the state, nothing else to do
+    private static final Runnable ENTERED = () -> {
+    };
+
+    // small enough for the whole search to fit in the default state limit
+    private static final int DEFAULT_REQUESTERS = 3;
+    private static final int DEFAULT_CLASSES = 2;
+    private static final int DEFAULT_RETRANSMISSIONS = 1;
+
+    private static final int MAX_TIMESTAMP = (1 << 16) - 1;
+    private static final int MAX_GRANT = (1 << 20) - 1;
+
+    private final int nodes;
+    private final int requests;
+    private final int requesters;
+    private final int classes;
+    private final int retransmissions;
+    private final boolean fifo;
+    private final boolean reduction;
+    private final int threads;
+    private final QuorumLayout layout;
+    private final FingerprintSet visited;
+
+    private final AtomicLong transitions = new AtomicLong();
+    private final AtomicLong sleeping = new AtomicLong();
+    private final AtomicLong terminal = new AtomicLong();
+    private final AtomicReference<Violation> violation = new AtomicReference<>();
+
+    private State initial;
+    private int depth;
+    private boolean complete;
+    private long elapsedNanos;
+
+    private static final class State {
+        // protocol state of participant i + 1
+        final int[][] participants;
+        final int[] requestsLeft;
+        final int retransmissionsLeft;
+        // packed messages: sorted, or grouped by channel in sending order when fifo
+        final long[] messages;
+        long fingerprint;
+        long[] enabled;
+
+        State(int[][] participants, int[] requestsLeft, int retransmissionsLeft, long[] messages) {
+            this.participants = participants;
+            this.requestsLeft = requestsLeft;
+            this.retransmissionsLeft = retransmissionsLeft;
+            this.messages = messages;
+        }
+    }
+
+    // a state to expand: the transitions in explore that are not asleep
+    private static final class Item {
+        final State state;
+        final long sleep;
+        final long explore;
+        final boolean first;
+
+        Item(State state, long sleep, long explore, boolean first) {
+            this.state = state;
+            this.sleep = sleep;
+            this.explore = explore;
+            this.first = first;
+        }
+    }
+
+    private static final class Violation {
+        final String property;
+        final long fingerprint;
+
+        Violation(String property, long fingerprint) {
+            this.property = property;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    public ModelChecker(int nodes, int requests, int requesters, boolean fifo, boolean reduction, int threads,
+                        int maxStates, int classes, int retransmissions) {
+        this.nodes = nodes;
+        this.requests = requests;
+        this.requesters = Math.min(requesters, nodes);
+        this.classes = Math.max(1, classes);
+        this.retransmissions = retransmissions;
+        this.fifo = fifo;
+        this.reduction = reduction;
+        this.threads = threads;
+        this.layout = new GridQuorum(nodes);
+        this.visited = new FingerprintSet(maxStates);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int requesters = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_REQUESTERS;
+        boolean fifo = args.length > 3 && args[3].equalsIgnoreCase("fifo");
+        boolean reduction = args.length <= 4 || !args[4].equalsIgnoreCase("off");
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+        int maxStates = args.length > 6 ? Integer.parseInt(args[6]) : 8_000_000;
+        int classes = args.length > 7 ? Integer.parseInt(args[7]) : DEFAULT_CLASSES;
+        int retransmissions = args.length > 8 ? Integer.parseInt(args[8]) : DEFAULT_RETRANSMISSIONS;
+
+        ModelChecker checker = new ModelChecker(nodes, requests, requesters, fifo, reduction, threads, maxStates,
+                classes, retransmissions);
+        checker.run();
+        checker.report();
+    }
+
+    public void run() throws InterruptedException {
+        long start = System.nanoTime();
+        PriorityClasses.setAgingRounds(AGING);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            Worker setup = new Worker();
+            initial = setup.initialState();
+            int slot = -visited.add(initial.fingerprint) - 1;
+            visited.intersectSleep(slot, 0);
+
+            List<Item> frontier = new ArrayList<>();
+            frontier.add(new Item(initial, 0, -1L, true));
+            complete = true;
+
+            while (!frontier.isEmpty() && violation.get() == null) {
+                List<Item> level = frontier;
+                AtomicLong next = new AtomicLong();
+                List<Callable<List<Item>>> tasks = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    tasks.add(() -> {
+                        Worker worker = new Worker();
+                        List<Item> out = new ArrayList<>();
+                        for (long k; (k = next.getAndIncrement()) < level.size() && violation.get() == null; ) {
+                            worker.expand(level.get((int) k), out);
+                        }
+                        return out;
+                    });
+                }
+
+                frontier = new ArrayList<>();
+                for (Future<List<Item>> result : executor.invokeAll(tasks)) {
+                    frontier.addAll(result.get());
+                }
+                if (!frontier.isEmpty()) {
+                    depth++;
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalStateException) {
+                // state limit reached
+                complete = false;
+                System.out.println("Search stopped: " + e.getCause().getMessage());
+            } else {
+                throw new RuntimeException(e.getCause());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    public void report() {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("Nodes: " + nodes + ", requests: " + requests + " for each of nodes 1 to " + requesters
+                + ", classes: " + classes + ", retransmissions: " + retransmissions + ", channels: "
+                + (fifo ? "fifo" : "any order") + ", reduction: " + (reduction ? "sleep sets" : "off")
+                + ", threads: " + threads);
+        System.out.println(String.format("States: %d, transitions: %d (%d asleep), depth: %d, terminal: %d, "
+                        + "%.1f s (%.0f states/s)", visited.size(), transitions.get(), sleeping.get(), depth,
+                terminal.get(), seconds, visited.size() / Math.max(seconds, 1e-9)));
+
+        Violation found = violation.get();
+        if (found != null) {
+            System.out.println("Violated: " + found.property);
+            for (String step : trace(found.fingerprint)) {
+                System.out.println("  " + step);
+            }
+        } else if (complete) {
+            System.out.println("Mutual exclusion and deadlock freedom hold in every reachable state");
+        } else {
+            System.out.println("No violation in the states explored, every interleaving of up to " + depth
+                    + " steps was checked");
+        }
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public boolean hasViolation() {
+        return violation.get() != null;
+    }
+
+    public int getStates() {
+        return visited.size();
+    }
+
+    /**
+     * Steps from the initial state to the state with <code>fingerprint</code>,
+     * found again by following the parents and trying every step.
+     */
+    private List<String> trace(long fingerprint) {
+        List<Long> path = new ArrayList<>();
+        for (long f = fingerprint; f != 0; f = visited.getParent(visited.find(f))) {
+            path.add(f);
+        }
+
+        Worker worker = new Worker();
+        List<String> steps = new ArrayList<>();
+        State state = initial;
+        for (int i = path.size() - 2; i >= 0; i--) {
+            long target = path.get(i);
+            State next = null;
+            for (long t : state.enabled) {
+                State candidate = worker.successor(state, t);
+                if (candidate.fingerprint == target) {
+                    steps.add(describe(t));
+                    next = candidate;
+                    break;
+                }
+            }
+            if (next == null) {
+                steps.add("(trace lost: fingerprint collision)");
+                break;
+            }
+            state = next;
+        }
+        steps.add("-> " + describe(state));
+        return steps;
+    }
+
+    private String describe(long t) {
+        int type = type(t);
+        if (type == REQUEST_STEP) {
+            return "node " + node(t) + " requests in class " + (int) (t & MAX_GRANT);
+        } else if (type == RELEASE_STEP) {
+            return "node " + node(t) + " releases";
+        } else if (type == RETRANSMIT_REQUEST_STEP) {
+            return "node " + node(t) + " asks again for its missing votes";
+        } else if (type == RETRANSMIT_VOTE_STEP) {
+            return "node " + node(t) + " sends its vote again";
+        }
+        return "node " + (int) (t >>> 48) + " -> node " + node(t) + ": " + MessageTypes.nameOf((byte) type)
+                + " ts " + (int) ((t >>> 20) & MAX_TIMESTAMP) + " grant " + (int) (t & MAX_GRANT);
+    }
+
+    private String describe(State state) {
+        StringBuilder text = new StringBuilder();
+        Worker worker = new Worker();
+        for (int id = 1; id <= nodes; id++) {
+            SandersProtocol p = worker.restore(state, id);
+            text.append(id).append(p.isInCs() ? ":cs " : p.isWaitingCS() ? ":waiting " : ":idle ");
+        }
+        text.append("| ").append(state.messages.length).append(" messages in flight");
+        return text.toString();
+    }
+
+    private static long pack(int from, int to, int type, int timestamp, int grant) {
+        if (timestamp > MAX_TIMESTAMP || grant > MAX_GRANT) {
+            throw new IllegalArgumentException("timestamp or grant out of range");
+        }
+        return (long) from << 48 | (long) to << 40 | (long) type << 36 | (long) timestamp << 20 | grant;
+    }
+
+    private static long localStep(int node, int type, int value) {
+        return (long) node << 40 | (long) type << 36 | value;
+    }
+
+    // participant taking the step: the receiver of a message
+    private static int node(long t) {
+        return (int) (t >>> 40) & 0xFF;
+    }
+
+    private static int type(long t) {
+        return (int) (t >>> 36) & 0xF;
+    }
+
+    private static int channel(long message) {
+        return (int) (message >>> 40);
+    }
+
+    /**
+     * Protocol instances of one thread, restored from a state before each
+     * step, and the messages the step sends.
+     */
+    private class Worker {
+        private final SandersProtocol[] participants = new SandersProtocol[nodes + 1];
+        private long[] sent = new long[16];
+        private int sentCount;
+
+        Worker() {
+            for (int id = 1; id <= nodes; id++) {
+                int from = id;
+                participants[id] = new SandersProtocol(id, layout, (to, type, timestamp, grant) -> {
+                    if (sentCount == sent.length) {
+                        sent = Arrays.copyOf(sent, sentCount * 2);
+                    }
+                    sent[sentCount++] = pack(from, to, type, timestamp, grant);
+                });
+            }
+        }
+
+        State initialState() {
+            int[][] states = new int[nodes][];
+            int[] left = new int[nodes];
+            for (int id = 1; id <= nodes; id++) {
+                states[id - 1] = participants[id].getState();
+                left[id - 1] = id <= requesters ? requests : 0;
+            }
+            return finish(new State(states, left, retransmissions, new long[0]));
+        }
+
+        SandersProtocol restore(State state, int id) {
+            SandersProtocol p = participants[id];
+            p.setState(state.participants[id - 1]);
+            return p;
+        }
+
+        void expand(Item item, List<Item> out) {
+            State state = item.state;
+            long[] enabled = state.enabled;
+
+            if (enabled.length == 0) {
+                terminal.incrementAndGet();
+                return;
+            }
+
+            // transitions already explored from here, asleep in later successors
+            long done = 0;
+            for (int k = 0; k < enabled.length; k++) {
+                boolean tracked = k < 64;
+                if (tracked && ((item.sleep >>> k) & 1) != 0) {
+                    sleeping.incrementAndGet();
+                    continue;
+                }
+                if (tracked ? ((item.explore >>> k) & 1) == 0 : !item.first) {
+                    continue;
+                }
+
+                long t = enabled[k];
+                State next = successor(state, t);
+                transitions.incrementAndGet();
+
+                long asleep = item.first ? item.sleep | done : item.sleep;
+                long nextSleep = reduction ? carrySleep(enabled, asleep, t, next.enabled) : 0;
+                if (tracked) {
+                    done |= 1L << k;
+                }
+
+                int slot = visited.add(next.fingerprint);
+                if (slot < 0) {
+                    slot = -slot - 1;
+                    visited.setParent(slot, state.fingerprint);
+                    check(next);
+                }
+
+                long before = visited.intersectSleep(slot, nextSleep);
+                if (before == -1L) {
+                    out.add(new Item(next, nextSleep, -1L, true));
+                } else if ((before & ~nextSleep) != 0) {
+                    // reached again with fewer transitions asleep: explore those too
+                    out.add(new Item(next, nextSleep, before & ~nextSleep, false));
+                }
+            }
+        }
+
+        /**
+         * Sleep set of the successor by <code>t</code>: the asleep transitions
+         * of other participants, which <code>t</code> leaves enabled.
+         */
+        private long carrySleep(long[] enabled, long asleep, long t, long[] nextEnabled) {
+            long result = 0;
+            int node = node(t);
+            for (long bits = asleep; bits != 0; bits &= bits - 1) {
+                long u = enabled[Long.numberOfTrailingZeros(bits)];
+                if (node(u) == node) {
+                    continue;
+                }
+                int index = Arrays.binarySearch(nextEnabled, u);
+                if (index >= 0 && index < 64) {
+                    result |= 1L << index;
+                }
+            }
+            return result;
+        }
+
+        private void check(State state) {
+            int holders = 0;
+            boolean waiting = false;
+            for (int id = 1; id <= nodes; id++) {
+                int flags = state.participants[id - 1][1];
+                holders += (flags & 2) != 0 ? 1 : 0;
+                waiting |= (flags & 1) != 0;
+            }
+
+            if (holders > 1) {
+                violation.compareAndSet(null, new Violation("mutual exclusion (" + holders
+                        + " nodes in critical session)", state.fingerprint));
+            } else if (state.enabled.length == 0 && waiting) {
+                violation.compareAndSet(null, new Violation("deadlock freedom (waiting nodes, nothing can happen)",
+                        state.fingerprint));
+            }
+        }
+
+        State successor(State state, long t) {
+            int id = node(t);
+            int type = type(t);
+            SandersProtocol p = restore(state, id);
+            int[] left = state.requestsLeft;
+            int retransmissionsLeft = state.retransmissionsLeft;
+            long[] messages = state.messages;
+            sentCount = 0;
+
+            if (type == REQUEST_STEP) {
+                p.request((int) (t & MAX_GRANT), ENTERED);
+                left = left.clone();
+                left[id - 1]--;
+            } else if (type == RELEASE_STEP) {
+                p.release();
+            } else if (type == RETRANSMIT_REQUEST_STEP || type == RETRANSMIT_VOTE_STEP) {
+                if (type == RETRANSMIT_REQUEST_STEP) {
+                    p.retransmitRequest();
+                } else {
+                    p.retransmitVote();
+                }
+                retransmissionsLeft--;
+            } else {
+                messages = remove(messages, t);
+                p.handle((int) (t >>> 48), (byte) type, (int) ((t >>> 20) & MAX_TIMESTAMP), (int) (t & MAX_GRANT));
+            }
+
+            int[][] participants = state.participants.clone();
+            participants[id - 1] = p.getState();
+            return finish(new State(participants, left, retransmissionsLeft, add(messages)));
+        }
+
+        // first copy of the message, the head of its channel when fifo
+        private long[] remove(long[] messages, long message) {
+            int index = 0;
+            while (messages[index] != message) {
+                index++;
+            }
+            long[] result = new long[messages.length - 1];
+            System.arraycopy(messages, 0, result, 0, index);
+            System.arraycopy(messages, index + 1, result, index, result.length - index);
+            return result;
+        }
+
+        private long[] add(long[] messages) {
+            if (sentCount == 0) {
+                return messages;
+            }
+
+            long[] result = Arrays.copyOf(messages, messages.length + sentCount);
+            if (!fifo) {
+                System.arraycopy(sent, 0, result, messages.length, sentCount);
+                Arrays.sort(result);
+                return result;
+            }
+
+            // behind the last message of the same channel
+            int length = messages.length;
+            for (int i = 0; i < sentCount; i++) {
+                long message = sent[i];
+                int at = length;
+                while (at > 0 && channel(result[at - 1]) > channel(message)) {
+                    at--;
+                }
+                System.arraycopy(result, at, result, at + 1, length - at);
+                result[at] = message;
+                length++;
+            }
+            return result;
+        }
+
+        private State finish(State state) {
+            state.enabled = enabled(state);
+            state.fingerprint = fingerprint(state);
+            return state;
+        }
+
+        private long[] enabled(State state) {
+            long[] steps = new long[state.messages.length + nodes * (classes + 2)];
+            int count = 0;
+
+            long previous = -1;
+            int previousChannel = -1;
+            for (long message : state.messages) {
+                int channel = channel(message);
+                boolean head = !fifo || channel != previousChannel;
+                if (head && message != previous) {
+                    steps[count++] = message;
+                }
+                previous = message;
+                previousChannel = channel;
+            }
+
+            for (int id = 1; id <= nodes; id++) {
+                int flags = state.participants[id - 1][1];
+                if ((flags & 2) != 0) {
+                    steps[count++] = localStep(id, RELEASE_STEP, 0);
+                } else if ((flags & 1) == 0 && state.requestsLeft[id - 1] > 0) {
+                    for (int c = 0; c < classes; c++) {
+                        steps[count++] = localStep(id, REQUEST_STEP, c);
+                    }
+                }
+
+                if (state.retransmissionsLeft > 0) {
+                    if ((flags & 1) != 0) {
+                        steps[count++] = localStep(id, RETRANSMIT_REQUEST_STEP, 0);
+                    }
+                    if ((flags & 4) != 0) {
+                        steps[count++] = localStep(id, RETRANSMIT_VOTE_STEP, 0);
+                    }
+                }
+            }
+
+            long[] result = Arrays.copyOf(steps, count);
+            Arrays.sort(result);
+            return result;
+        }
+
+        private long fingerprint(State state) {
+            long h = 0x243F6A8885A308D3L;
+            for (int[] participant : state.participants) {
+                h = mix(h, participant.length);
+                for (int v : participant) {
+                    h = mix(h, v);
+                }
+            }
+            for (int left : state.requestsLeft) {
+                h = mix(h, left);
+            }
+            h = mix(h, state.retransmissionsLeft);
+            for (long message : state.messages) {
+                h = mix(h, message);
+            }
+            return h;
+        }
+
+        private long mix(long h, long v) {
+            h = (h ^ v) * 0x9E3779B97F4A7C15L;
+            return h ^ (h >>> 31);
+        }
+    }
+}